@@ -1,13 +1,19 @@
 package com.izettle.metrics.dw;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.zip.Deflater;
 
 import javax.activation.UnsupportedDataTypeException;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.validator.constraints.NotEmpty;
@@ -20,16 +26,28 @@ import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import com.izettle.metrics.influxdb.FanOutInfluxDbSender;
 import com.izettle.metrics.influxdb.InfluxDBKafkaSender;
 import com.izettle.metrics.influxdb.InfluxDbHttpSender;
 import com.izettle.metrics.influxdb.InfluxDbLoggerSender;
 import com.izettle.metrics.influxdb.InfluxDbReporter;
+import com.izettle.metrics.influxdb.InfluxDbSender;
 import com.izettle.metrics.influxdb.InfluxDbTcpSender;
 import com.izettle.metrics.influxdb.InfluxDbUdpSender;
+import com.izettle.metrics.influxdb.KafkaRecordMode;
+import com.izettle.metrics.influxdb.OverflowPolicy;
+import com.izettle.metrics.influxdb.RetryPolicy;
+import com.izettle.metrics.influxdb.ShardingInfluxDbSender;
+import com.izettle.metrics.influxdb.tags.CachingTransformer;
 import com.izettle.metrics.dw.tags.ClassBasedTransformer;
 import com.izettle.metrics.dw.tags.Transformer;
 import io.dropwizard.metrics.BaseReporterFactory;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.DataSizeUnit;
 import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MaxDataSize;
+import io.dropwizard.validation.MinDataSize;
 import io.dropwizard.validation.ValidationMethod;
 
 /**
@@ -63,6 +81,21 @@ import io.dropwizard.validation.ValidationMethod;
  *         <td>The port of the InfluxDb server to report to.</td>
  *     </tr>
  *     <tr>
+ *         <td>fanOutHosts</td>
+ *         <td><i>None</i></td>
+ *         <td>Further InfluxDb servers, as host or host:port, each report is written to as well. Every server gets
+ *         its own asynchronous queue, see asyncQueueCapacity, so that a slow one does not delay the others. Only the
+ *         http, tcp and udp senders fan out, and not together with a spool.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>shardHosts</td>
+ *         <td><i>None</i></td>
+ *         <td>Further InfluxDb servers, as host or host:port, to spread the series over along with host. Each series
+ *         is written to one server, chosen by a consistent hash of its measurement and tags, and the servers are
+ *         written concurrently. Only the http, tcp and udp senders shard, and not together with fanOutHosts or a
+ *         spool.</td>
+ *     </tr>
+ *     <tr>
  *         <td>prefix</td>
  *         <td><i>None</i></td>
  *         <td>The prefix for Metric key names (measurement) to report to InfluxDb.</td>
@@ -90,7 +123,7 @@ import io.dropwizard.validation.ValidationMethod;
  *     <tr>
  *         <td>connectTimeout</td>
  *         <td>1500</td>
- *         <td>The connect timeout in milliseconds for connecting to InfluxDb.</td>
+ *         <td>The connect timeout in milliseconds for connecting to InfluxDb, over http or tcp.</td>
  *     </tr>
  *     <tr>
  *         <td>readTimeout</td>
@@ -98,6 +131,137 @@ import io.dropwizard.validation.ValidationMethod;
  *         <td>The read timeout in milliseconds for reading from InfluxDb.</td>
  *     </tr>
  *     <tr>
+ *         <td>compression</td>
+ *         <td>false</td>
+ *         <td>Whether to gzip compress the body of the writes of the http sender.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>compressionLevel</td>
+ *         <td>1</td>
+ *         <td>The deflate level to compress with, from 1 (fastest) to 9 (smallest).</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxBatchPoints</td>
+ *         <td>0</td>
+ *         <td>The maximum number of points written per request, larger reports are split into several requests.
+ *         0 to write each report in a single request. InfluxDb recommends 5000.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxBatchBytes</td>
+ *         <td>0</td>
+ *         <td>The maximum size in bytes of the points written per request, before compression. 0 for no limit.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxInFlightBatches</td>
+ *         <td>1</td>
+ *         <td>The maximum number of requests written at the same time when a report is split. Only the http, logger
+ *         and kafka senders write concurrently.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>async</td>
+ *         <td>false</td>
+ *         <td>Whether to write reports from a dedicated thread, so that a slow InfluxDb does not delay collecting
+ *         metrics.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>asyncQueueCapacity</td>
+ *         <td>8</td>
+ *         <td>The maximum number of reports waiting to be written when async.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>asyncOverflowPolicy</td>
+ *         <td>drop_oldest</td>
+ *         <td>What to do with a report when the async queue is full (drop_oldest, drop_newest or block).</td>
+ *     </tr>
+ *     <tr>
+ *         <td>asyncBlockTimeout</td>
+ *         <td>1s</td>
+ *         <td>How long the block overflow policy waits for room in the queue before dropping the report.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>retryMaxAttempts</td>
+ *         <td>1</td>
+ *         <td>The maximum number of attempts per write, 1 to not retry.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>retryInitialBackoff</td>
+ *         <td>100ms</td>
+ *         <td>The longest wait before the first retry. Waits are random, up to a ceiling doubling with each
+ *         retry.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>retryMaxBackoff</td>
+ *         <td>5s</td>
+ *         <td>The longest wait before any retry.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>retryBudget</td>
+ *         <td>10s</td>
+ *         <td>The longest time spent writing a report, retries included.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>circuitBreakerFailureThreshold</td>
+ *         <td>0</td>
+ *         <td>The number of consecutive failed attempts after which writes are skipped, 0 to never skip.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>circuitBreakerOpenDuration</td>
+ *         <td>30s</td>
+ *         <td>How long writes are skipped before trying again.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>selfMetrics</td>
+ *         <td>false</td>
+ *         <td>Whether to keep metrics about the reporter itself, named influxdb-reporter.*, such as the time spent
+ *         collecting, encoding and writing reports, their size, failures and dropped reports. They are reported
+ *         along with the other metrics.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>collectionParallelism</td>
+ *         <td>0</td>
+ *         <td>The number of threads collecting the counters, histograms, meters and timers of a report, 0 to
+ *         collect them from the reporting thread. Worth it for registries of many timers and histograms.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>collectionPartitionSize</td>
+ *         <td>256</td>
+ *         <td>The number of metrics collected by each task, when collecting from several threads.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>spoolFile</td>
+ *         <td><i>None</i></td>
+ *         <td>A file to keep the writes that fail in, to write them again once InfluxDb can be reached. The writes
+ *         are kept across restarts. Writes InfluxDb rejects, with a 4xx response other than 408 and 429, are not
+ *         kept.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>spoolSize</td>
+ *         <td>64MiB</td>
+ *         <td>The size of the spool file, the oldest writes are evicted when it is full.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>spoolReplayRate</td>
+ *         <td>10</td>
+ *         <td>The maximum number of spooled writes written again per second.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxDatagramBytes</td>
+ *         <td>1472</td>
+ *         <td>The maximum size in bytes of the datagrams of the udp sender, the default fits a 1500 byte MTU.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>kafkaProducerProperties</td>
+ *         <td><i>None</i></td>
+ *         <td>Properties of the producer of the kafka sender, e.g. linger.ms, batch.size, compression.type or
+ *         acks.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>kafkaRecordMode</td>
+ *         <td>batch</td>
+ *         <td>Whether the kafka sender writes one unkeyed record per batch, or one record per point keyed by its
+ *         series (point), preserving the order of each series.</td>
+ *     </tr>
+ *     <tr>
  *         <td>auth</td>
  *         <td><i>None</i></td>
  *         <td>An auth string of format username:password to authenticate with when reporting to InfluxDb.</td>
@@ -108,9 +272,17 @@ import io.dropwizard.validation.ValidationMethod;
  *         <td>A boolean to signal whether to group gauges when reporting to InfluxDb.</td>
  *     </tr>
  *     <tr>
+ *         <td>integerFields</td>
+ *         <td><i>false</i></td>
+ *         <td>A boolean to signal whether to write counts and other integral values as InfluxDb integers instead of
+ *         floats. Fields already stored as floats will reject integers, so only enable it for new measurements.</td>
+ *     </tr>
+ *     <tr>
  *         <td>measurementMappings</td>
  *         <td><i>None</i></td>
- *         <td>A map for measurement mappings to be added, overridden or removed from the defaultMeasurementMappings.</td>
+ *         <td>A map for measurement mappings to be added, overridden or removed from the defaultMeasurementMappings.
+ *         A metric is mapped by the first mapping matching its name, these mappings in their order first, then the
+ *         defaults left in theirs.</td>
  *     </tr>
  *     <tr>
  *         <td>defaultMeasurementMappings</td>
@@ -149,7 +321,8 @@ import io.dropwizard.validation.ValidationMethod;
  *         <td>tagsTransformer</td>
  *         <td><i>ClassBased</i></tr>
  *         <td>A <code>JsonTypeName</code> for a class implementing the
- *         <code>com.izettle.metrics.dw.tags.Transformer</code> interface.</td>
+ *         <code>com.izettle.metrics.dw.tags.Transformer</code> interface. The tags it returns are cached by
+ *         metric name.</td>
  *     </tr>
  * </table>
  */
@@ -164,6 +337,12 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
     @Range(min = 0, max = 49151)
     private int port = 8086;
 
+    @NotNull
+    private List<String> fanOutHosts = new ArrayList<>();
+
+    @NotNull
+    private List<String> shardHosts = new ArrayList<>();
+
     @NotNull
     private String prefix = "";
 
@@ -189,6 +368,77 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
     @Range(min = 500, max = 30000)
     private int readTimeout = 1500;
 
+    private boolean compression = false;
+
+    @Range(min = 1, max = 9)
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    @Min(0)
+    private int maxBatchPoints = 0;
+
+    @Min(0)
+    private int maxBatchBytes = 0;
+
+    @Range(min = 1, max = 64)
+    private int maxInFlightBatches = 1;
+
+    private boolean async = false;
+
+    @Min(1)
+    private int asyncQueueCapacity = 8;
+
+    @NotNull
+    private OverflowPolicy asyncOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    @NotNull
+    private Duration asyncBlockTimeout = Duration.seconds(1);
+
+    @Min(1)
+    private int retryMaxAttempts = 1;
+
+    @NotNull
+    private Duration retryInitialBackoff = Duration.milliseconds(100);
+
+    @NotNull
+    private Duration retryMaxBackoff = Duration.seconds(5);
+
+    @NotNull
+    private Duration retryBudget = Duration.seconds(10);
+
+    @Min(0)
+    private int circuitBreakerFailureThreshold = 0;
+
+    @NotNull
+    private Duration circuitBreakerOpenDuration = Duration.seconds(30);
+
+    private boolean selfMetrics = false;
+
+    @Min(0)
+    private int collectionParallelism = 0;
+
+    @Min(1)
+    private int collectionPartitionSize = InfluxDbReporter.DEFAULT_COLLECTION_PARTITION_SIZE;
+
+    @NotNull
+    private String spoolFile = "";
+
+    @NotNull
+    @MinDataSize(value = 1, unit = DataSizeUnit.KIBIBYTES)
+    @MaxDataSize(value = 2047, unit = DataSizeUnit.MEBIBYTES)
+    private DataSize spoolSize = DataSize.mebibytes(64);
+
+    @Min(1)
+    private int spoolReplayRate = 10;
+
+    @Range(min = 1, max = 65507)
+    private int maxDatagramBytes = InfluxDbUdpSender.DEFAULT_MAX_DATAGRAM_BYTES;
+
+    @NotNull
+    private Map<String, String> kafkaProducerProperties = new HashMap<>();
+
+    @NotNull
+    private KafkaRecordMode kafkaRecordMode = KafkaRecordMode.BATCH;
+
     @NotNull
     private Duration precision = Duration.minutes(1);
 
@@ -197,6 +447,8 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
 
     private boolean groupGauges = true;
 
+    private boolean integerFields = false;
+
     private ImmutableMap<String, String> measurementMappings = ImmutableMap.of();
 
     private ImmutableMap<String, String> defaultMeasurementMappings = ImmutableMap.<String, String>builder()
@@ -277,6 +529,26 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
         this.port = port;
     }
 
+    @JsonProperty
+    public List<String> getFanOutHosts() {
+        return fanOutHosts;
+    }
+
+    @JsonProperty
+    public void setFanOutHosts(List<String> fanOutHosts) {
+        this.fanOutHosts = fanOutHosts;
+    }
+
+    @JsonProperty
+    public List<String> getShardHosts() {
+        return shardHosts;
+    }
+
+    @JsonProperty
+    public void setShardHosts(List<String> shardHosts) {
+        this.shardHosts = shardHosts;
+    }
+
     @JsonProperty
     public String getPrefix() {
         return prefix;
@@ -347,6 +619,246 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
         this.readTimeout = readTimeout;
     }
 
+    @JsonProperty
+    public boolean getCompression() {
+        return compression;
+    }
+
+    @JsonProperty
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    @JsonProperty
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @JsonProperty
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    @JsonProperty
+    public int getMaxBatchPoints() {
+        return maxBatchPoints;
+    }
+
+    @JsonProperty
+    public void setMaxBatchPoints(int maxBatchPoints) {
+        this.maxBatchPoints = maxBatchPoints;
+    }
+
+    @JsonProperty
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    @JsonProperty
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @JsonProperty
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    @JsonProperty
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    @JsonProperty
+    public boolean getAsync() {
+        return async;
+    }
+
+    @JsonProperty
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    @JsonProperty
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    @JsonProperty
+    public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    @JsonProperty
+    public OverflowPolicy getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+    @JsonProperty
+    public void setAsyncOverflowPolicy(OverflowPolicy asyncOverflowPolicy) {
+        this.asyncOverflowPolicy = asyncOverflowPolicy;
+    }
+
+    @JsonProperty
+    public Duration getAsyncBlockTimeout() {
+        return asyncBlockTimeout;
+    }
+
+    @JsonProperty
+    public void setAsyncBlockTimeout(Duration asyncBlockTimeout) {
+        this.asyncBlockTimeout = asyncBlockTimeout;
+    }
+
+    @JsonProperty
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    @JsonProperty
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    @JsonProperty
+    public Duration getRetryInitialBackoff() {
+        return retryInitialBackoff;
+    }
+
+    @JsonProperty
+    public void setRetryInitialBackoff(Duration retryInitialBackoff) {
+        this.retryInitialBackoff = retryInitialBackoff;
+    }
+
+    @JsonProperty
+    public Duration getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    @JsonProperty
+    public void setRetryMaxBackoff(Duration retryMaxBackoff) {
+        this.retryMaxBackoff = retryMaxBackoff;
+    }
+
+    @JsonProperty
+    public Duration getRetryBudget() {
+        return retryBudget;
+    }
+
+    @JsonProperty
+    public void setRetryBudget(Duration retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    @JsonProperty
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    @JsonProperty
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    @JsonProperty
+    public Duration getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    @JsonProperty
+    public void setCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    @JsonProperty
+    public boolean getSelfMetrics() {
+        return selfMetrics;
+    }
+
+    @JsonProperty
+    public void setSelfMetrics(boolean selfMetrics) {
+        this.selfMetrics = selfMetrics;
+    }
+
+    @JsonProperty
+    public int getCollectionParallelism() {
+        return collectionParallelism;
+    }
+
+    @JsonProperty
+    public void setCollectionParallelism(int collectionParallelism) {
+        this.collectionParallelism = collectionParallelism;
+    }
+
+    @JsonProperty
+    public int getCollectionPartitionSize() {
+        return collectionPartitionSize;
+    }
+
+    @JsonProperty
+    public void setCollectionPartitionSize(int collectionPartitionSize) {
+        this.collectionPartitionSize = collectionPartitionSize;
+    }
+
+    @JsonProperty
+    public String getSpoolFile() {
+        return spoolFile;
+    }
+
+    @JsonProperty
+    public void setSpoolFile(String spoolFile) {
+        this.spoolFile = spoolFile;
+    }
+
+    @JsonProperty
+    public DataSize getSpoolSize() {
+        return spoolSize;
+    }
+
+    @JsonProperty
+    public void setSpoolSize(DataSize spoolSize) {
+        this.spoolSize = spoolSize;
+    }
+
+    @JsonProperty
+    public int getSpoolReplayRate() {
+        return spoolReplayRate;
+    }
+
+    @JsonProperty
+    public void setSpoolReplayRate(int spoolReplayRate) {
+        this.spoolReplayRate = spoolReplayRate;
+    }
+
+    @JsonProperty
+    public int getMaxDatagramBytes() {
+        return maxDatagramBytes;
+    }
+
+    @JsonProperty
+    public void setMaxDatagramBytes(int maxDatagramBytes) {
+        this.maxDatagramBytes = maxDatagramBytes;
+    }
+
+    @JsonProperty
+    public Map<String, String> getKafkaProducerProperties() {
+        return kafkaProducerProperties;
+    }
+
+    @JsonProperty
+    public void setKafkaProducerProperties(Map<String, String> kafkaProducerProperties) {
+        this.kafkaProducerProperties = kafkaProducerProperties;
+    }
+
+    @JsonProperty
+    public KafkaRecordMode getKafkaRecordMode() {
+        return kafkaRecordMode;
+    }
+
+    @JsonProperty
+    public void setKafkaRecordMode(KafkaRecordMode kafkaRecordMode) {
+        this.kafkaRecordMode = kafkaRecordMode;
+    }
+
     @JsonProperty
     public boolean getGroupGauges() {
         return groupGauges;
@@ -357,6 +869,16 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
         this.groupGauges = groupGauges;
     }
 
+    @JsonProperty
+    public boolean getIntegerFields() {
+        return integerFields;
+    }
+
+    @JsonProperty
+    public void setIntegerFields(boolean integerFields) {
+        this.integerFields = integerFields;
+    }
+
     @JsonProperty
     public Duration getPrecision() {
         return precision;
@@ -424,83 +946,137 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
         try {
             InfluxDbReporter.Builder builder = builder(registry);
 
-            switch (senderType) {
-                case HTTP:
-                    return builder.build(
-                        new InfluxDbHttpSender(
-                            protocol,
-                            host,
-                            port,
-                            database,
-                            auth,
-                            precision.getUnit(),
-                            connectTimeout,
-                            readTimeout,
-                            prefix
-                        )
-                    );
-                case TCP:
-                    return builder.build(
-                        new InfluxDbTcpSender(
-                            host,
-                            port,
-                            readTimeout,
-                            database,
-                            prefix
-                        )
-                    );
-                case UDP:
-                    return builder.build(
-                        new InfluxDbUdpSender(
-                            host,
-                            port,
-                            readTimeout,
-                            database,
-                            prefix
-                        )
-                    );
-                case LOGGER:
-                    return builder.build(
-                        new InfluxDbLoggerSender(
-                            database,
-                            TimeUnit.MILLISECONDS,
-                            prefix
-                        )
-                    );
-                case KAFKA:
-                        return builder.build(
-                        new InfluxDBKafkaSender(
-                            database,
-                            TimeUnit.MILLISECONDS,
-                            prefix
-                        )
-                     );
-                default:
-                    throw new UnsupportedDataTypeException("The Sender Type is not supported. ");
+            if (!shardHosts.isEmpty()) {
+                Map<String, InfluxDbSender> shards = new LinkedHashMap<>();
+                shards.put(HostAndPort.fromParts(host, port).toString(), sender(host, port));
+                for (String shardHost : shardHosts) {
+                    HostAndPort hostAndPort = HostAndPort.fromString(shardHost).withDefaultPort(port);
+                    if (shards.containsKey(hostAndPort.toString())) {
+                        throw new IllegalArgumentException("Duplicate shard " + hostAndPort);
+                    }
+                    shards.put(hostAndPort.toString(), sender(hostAndPort.getHost(), hostAndPort.getPort()));
+                }
+                return builder.build(new ShardingInfluxDbSender(shards));
+            }
+            if (fanOutHosts.isEmpty()) {
+                return builder.build(sender(host, port));
+            }
+            List<InfluxDbSender> destinations = new ArrayList<>();
+            destinations.add(sender(host, port));
+            for (String fanOutHost : fanOutHosts) {
+                HostAndPort hostAndPort = HostAndPort.fromString(fanOutHost).withDefaultPort(port);
+                destinations.add(sender(hostAndPort.getHost(), hostAndPort.getPort()));
             }
+            return builder.build(
+                new FanOutInfluxDbSender(
+                    prefix,
+                    destinations,
+                    asyncQueueCapacity,
+                    asyncOverflowPolicy,
+                    asyncBlockTimeout.getQuantity(),
+                    asyncBlockTimeout.getUnit()
+                )
+            );
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    private InfluxDbSender sender(String host, int port) throws Exception {
+        switch (senderType) {
+            case HTTP:
+                return new InfluxDbHttpSender(
+                    protocol,
+                    host,
+                    port,
+                    database,
+                    auth,
+                    precision.getUnit(),
+                    connectTimeout,
+                    readTimeout,
+                    prefix,
+                    compression,
+                    compressionLevel
+                );
+            case TCP:
+                return new InfluxDbTcpSender(
+                    host,
+                    port,
+                    readTimeout,
+                    database,
+                    prefix,
+                    connectTimeout
+                );
+            case UDP:
+                return new InfluxDbUdpSender(
+                    host,
+                    port,
+                    readTimeout,
+                    database,
+                    prefix,
+                    maxDatagramBytes
+                );
+            case LOGGER:
+                return new InfluxDbLoggerSender(
+                    database,
+                    TimeUnit.MILLISECONDS,
+                    prefix
+                );
+            case KAFKA:
+                return new InfluxDBKafkaSender(
+                    database,
+                    TimeUnit.MILLISECONDS,
+                    prefix,
+                    kafkaProducerProperties,
+                    kafkaRecordMode
+                );
+            default:
+                throw new UnsupportedDataTypeException("The Sender Type is not supported. ");
+        }
+    }
+
+    /**
+     * @return the mappings in the order they take precedence, the configured ones first and then the defaults they do
+     * not override or remove
+     */
     protected Map<String, String> buildMeasurementMappings() {
-        Map<String, String> mappings = new HashMap<>(defaultMeasurementMappings);
+        Map<String, String> mappings = new LinkedHashMap<>();
 
         for (Map.Entry<String, String> entry : measurementMappings.entrySet()) {
             String mappingKey = entry.getKey();
             String mappingValue = entry.getValue();
 
             if (mappingValue.isEmpty()) {
-                mappings.remove(mappingKey);
                 continue;
             }
 
             mappings.put(mappingKey, mappingValue);
         }
 
+        for (Map.Entry<String, String> entry : defaultMeasurementMappings.entrySet()) {
+            if (!measurementMappings.containsKey(entry.getKey())) {
+                mappings.put(entry.getKey(), entry.getValue());
+            }
+        }
+
         return mappings;
     }
 
+    @ValidationMethod(message = "fanOutHosts is only supported by the http, tcp and udp senders, without a spool")
+    public boolean isFanOutSupported() {
+        return fanOutHosts.isEmpty()
+            || (senderType == SenderType.HTTP || senderType == SenderType.TCP || senderType == SenderType.UDP)
+            && spoolFile.isEmpty();
+    }
+
+    @ValidationMethod(message = "shardHosts is only supported by the http, tcp and udp senders, without fanOutHosts "
+        + "or a spool")
+    public boolean isShardingSupported() {
+        return shardHosts.isEmpty()
+            || (senderType == SenderType.HTTP || senderType == SenderType.TCP || senderType == SenderType.UDP)
+            && fanOutHosts.isEmpty() && spoolFile.isEmpty();
+    }
+
     @ValidationMethod(message = "measurementMappings must be regular expressions")
     public boolean isMeasurementMappingRegularExpressions() {
         for (Map.Entry<String, String> entry : buildMeasurementMappings().entrySet()) {
@@ -515,15 +1091,44 @@ public class InfluxDbReporterFactory extends BaseReporterFactory {
 
     @VisibleForTesting
     protected InfluxDbReporter.Builder builder(MetricRegistry registry) {
-        return InfluxDbReporter.forRegistry(registry)
+        InfluxDbReporter.Builder builder = InfluxDbReporter.forRegistry(registry)
             .convertDurationsTo(getDurationUnit())
             .convertRatesTo(getRateUnit())
             .includeMeterFields(fields.get("meters"))
             .includeTimerFields(fields.get("timers"))
             .filter(getFilter())
             .groupGauges(getGroupGauges())
+            .integerFields(getIntegerFields())
             .withTags(getTags())
-            .tagsTransformer(tagsTransformer)
+            .tagsTransformer(new CachingTransformer(tagsTransformer))
+            // the senders are created by the factory for this reporter alone
+            .closeSenderOnStop(true)
             .measurementMappings(buildMeasurementMappings());
+        if (maxBatchPoints > 0 || maxBatchBytes > 0) {
+            builder.batching(maxBatchPoints > 0 ? maxBatchPoints : Integer.MAX_VALUE,
+                maxBatchBytes > 0 ? maxBatchBytes : Integer.MAX_VALUE, maxInFlightBatches);
+        }
+        if (async) {
+            builder.async(asyncQueueCapacity, asyncOverflowPolicy, asyncBlockTimeout.getQuantity(),
+                asyncBlockTimeout.getUnit());
+        }
+        if (retryMaxAttempts > 1) {
+            builder.retryPolicy(new RetryPolicy(retryMaxAttempts, retryInitialBackoff.toMilliseconds(),
+                retryMaxBackoff.toMilliseconds(), retryBudget.toMilliseconds(), TimeUnit.MILLISECONDS));
+        }
+        if (circuitBreakerFailureThreshold > 0) {
+            builder.circuitBreaker(circuitBreakerFailureThreshold, circuitBreakerOpenDuration.getQuantity(),
+                circuitBreakerOpenDuration.getUnit());
+        }
+        if (selfMetrics) {
+            builder.selfMetrics(InfluxDbReporter.DEFAULT_SELF_METRICS_PREFIX);
+        }
+        if (collectionParallelism > 0) {
+            builder.parallelCollection(collectionParallelism, collectionPartitionSize);
+        }
+        if (!spoolFile.isEmpty()) {
+            builder.spool(new File(spoolFile), (int) spoolSize.toBytes(), spoolReplayRate);
+        }
+        return builder;
     }
 }
@@ -6,16 +6,28 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.izettle.metrics.influxdb.FanOutInfluxDbSender;
+import com.izettle.metrics.influxdb.InfluxDBKafkaSender;
 import com.izettle.metrics.influxdb.InfluxDbHttpSender;
 import com.izettle.metrics.influxdb.InfluxDbReporter;
 import com.izettle.metrics.influxdb.InfluxDbTcpSender;
 import com.izettle.metrics.influxdb.InfluxDbUdpSender;
+import com.izettle.metrics.influxdb.KafkaRecordMode;
+import com.izettle.metrics.influxdb.OverflowPolicy;
+import com.izettle.metrics.influxdb.RetryPolicy;
+import com.izettle.metrics.influxdb.ShardingInfluxDbSender;
+import com.izettle.metrics.influxdb.tags.CachingTransformer;
 import io.dropwizard.jackson.DiscoverableSubtypeResolver;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
 import io.dropwizard.validation.BaseValidator;
+import java.io.File;
 import java.net.URL;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
 import org.apache.commons.codec.binary.Base64;
@@ -66,6 +78,26 @@ public class InfluxDbReporterFactoryTest {
                 "authStringEncoded")).isEqualTo(Base64.encodeBase64String("".getBytes(UTF_8)));
     }
 
+    @Test
+    public void shouldCompressHttpWritesWhenEnabled() throws Exception {
+        final InfluxDbReporter.Builder builderSpy = mock(InfluxDbReporter.Builder.class);
+        InfluxDbReporterFactory factory = new InfluxDbReporterFactory() {
+            @Override
+            protected InfluxDbReporter.Builder builder(MetricRegistry registry) {
+                return builderSpy;
+            }
+        };
+        factory.setCompression(true);
+        factory.setCompressionLevel(6);
+        factory.build(new MetricRegistry());
+
+        final ArgumentCaptor<InfluxDbHttpSender> argument = ArgumentCaptor.forClass(InfluxDbHttpSender.class);
+        verify(builderSpy).build(argument.capture());
+
+        assertThat(getField(argument.getValue(), InfluxDbHttpSender.class, "compression")).isEqualTo(true);
+        assertThat(getField(argument.getValue(), InfluxDbHttpSender.class, "compressionLevel")).isEqualTo(6);
+    }
+
     private static Object getField(Object object, Class clazz, String name) {
         try {
             return FieldUtils.getDeclaredField(clazz, name, true).get(object);
@@ -104,6 +136,18 @@ public class InfluxDbReporterFactoryTest {
         assertThat(measurementMappings).isEqualTo(defaultMeasurementMappings);
     }
 
+    @Test
+    public void shouldOrderConfiguredMeasurementMappingsFirst() {
+        factory.setMeasurementMappings(ImmutableMap.of("payments", ".*\\.payments\\..*", "health", "", "auth",
+            ".*\\.authentication\\..*"));
+
+        Map<String, String> measurementMappings = factory.buildMeasurementMappings();
+
+        assertThat(measurementMappings.keySet()).startsWith("payments", "auth", "dao", "resources");
+        assertThat(measurementMappings).doesNotContainKey("health");
+        assertThat(measurementMappings.keySet()).endsWith("jvm_threads");
+    }
+
     @Test
     public void shouldAddNewMeasurementMapping() {
         ImmutableMap<String, String> mappingsToAdd = ImmutableMap.of("mappingKey", ".*\\.mappingValue.*");
@@ -174,6 +218,110 @@ public class InfluxDbReporterFactoryTest {
         final InfluxDbTcpSender influxDb = argument.getValue();
 
         assertThat(getField(influxDb, InfluxDbTcpSender.class, "socketTimeout")).isEqualTo(3000);
+        assertThat(getField(influxDb, InfluxDbTcpSender.class, "connectTimeout")).isEqualTo(1500);
+    }
+
+    @Test
+    public void shouldBuildWithKafkaSender() throws Exception {
+        final InfluxDbReporter.Builder builderSpy = mock(InfluxDbReporter.Builder.class);
+        InfluxDbReporterFactory factory2 = new InfluxDbReporterFactory() {
+            @Override
+            protected InfluxDbReporter.Builder builder(MetricRegistry registry) {
+                return builderSpy;
+            }
+        };
+        factory2.setSenderType(SenderType.KAFKA);
+        factory2.setDatabase("metrics@localhost:10080");
+        factory2.setKafkaProducerProperties(ImmutableMap.of("linger.ms", "100", "acks", "1"));
+        factory2.setKafkaRecordMode(KafkaRecordMode.POINT);
+        factory2.build(new MetricRegistry());
+
+        final ArgumentCaptor<InfluxDBKafkaSender> argument = ArgumentCaptor.forClass(InfluxDBKafkaSender.class);
+        verify(builderSpy).build(argument.capture());
+
+        final InfluxDBKafkaSender influxDb = argument.getValue();
+        try {
+            assertThat(influxDb.getRecordMode()).isEqualTo(KafkaRecordMode.POINT);
+        } finally {
+            influxDb.close();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void shouldRejectInvalidKafkaProducerProperties() {
+        factory.setSenderType(SenderType.KAFKA);
+        factory.setDatabase("metrics@localhost:10080");
+        factory.setKafkaProducerProperties(ImmutableMap.of("acks", "some"));
+        factory.build(new MetricRegistry());
+    }
+
+    @Test
+    public void shouldBuildWithFanOutSender() throws Exception {
+        final InfluxDbReporter.Builder builderSpy = mock(InfluxDbReporter.Builder.class);
+        InfluxDbReporterFactory factory2 = new InfluxDbReporterFactory() {
+            @Override
+            protected InfluxDbReporter.Builder builder(MetricRegistry registry) {
+                return builderSpy;
+            }
+        };
+        factory2.setHost("regional");
+        factory2.setFanOutHosts(ImmutableList.of("central", "backup:8087"));
+        factory2.build(new MetricRegistry());
+
+        final ArgumentCaptor<FanOutInfluxDbSender> argument = ArgumentCaptor.forClass(FanOutInfluxDbSender.class);
+        verify(builderSpy).build(argument.capture());
+
+        final FanOutInfluxDbSender influxDb = argument.getValue();
+        try {
+            assertThat(influxDb.getDestinations()).hasSize(3);
+            assertThat(influxDb.getDestinations()).allMatch(sender -> sender instanceof InfluxDbHttpSender);
+            assertThat(getField(influxDb.getDestinations().get(2), InfluxDbHttpSender.class, "url").toString())
+                .startsWith("http://backup:8087/write");
+        } finally {
+            influxDb.close();
+        }
+    }
+
+    @Test
+    public void shouldBuildWithShardingSender() throws Exception {
+        final InfluxDbReporter.Builder builderSpy = mock(InfluxDbReporter.Builder.class);
+        InfluxDbReporterFactory factory2 = new InfluxDbReporterFactory() {
+            @Override
+            protected InfluxDbReporter.Builder builder(MetricRegistry registry) {
+                return builderSpy;
+            }
+        };
+        factory2.setSenderType(SenderType.UDP);
+        factory2.setHost("influxdb-1");
+        factory2.setShardHosts(ImmutableList.of("influxdb-2", "influxdb-3:8087"));
+        factory2.build(new MetricRegistry());
+
+        final ArgumentCaptor<ShardingInfluxDbSender> argument = ArgumentCaptor.forClass(ShardingInfluxDbSender.class);
+        verify(builderSpy).build(argument.capture());
+
+        final ShardingInfluxDbSender influxDb = argument.getValue();
+        try {
+            assertThat(influxDb.getShards()).hasSize(3);
+            assertThat(influxDb.getShards()).allMatch(sender -> sender instanceof InfluxDbUdpSender);
+        } finally {
+            influxDb.close();
+        }
+    }
+
+    @Test
+    public void shouldNotShardWhileFanningOut() {
+        factory.setShardHosts(ImmutableList.of("influxdb-2"));
+        assertThat(factory.isShardingSupported()).isTrue();
+        factory.setFanOutHosts(ImmutableList.of("central"));
+        assertThat(factory.isShardingSupported()).isFalse();
+    }
+
+    @Test
+    public void shouldOnlyFanOutWithNetworkSenders() {
+        factory.setFanOutHosts(ImmutableList.of("central"));
+        assertThat(factory.isFanOutSupported()).isTrue();
+        factory.setSenderType(SenderType.KAFKA);
+        assertThat(factory.isFanOutSupported()).isFalse();
     }
 
     @Test
@@ -186,6 +334,7 @@ public class InfluxDbReporterFactoryTest {
             }
         };
         factory2.setReadTimeout(3000);
+        factory2.setMaxDatagramBytes(8192);
         factory2.setSenderType(SenderType.UDP);
         assertThat(factory2.getReadTimeout()).isEqualTo(3000);
         assertThat(factory2.getSenderType()).isEqualTo(SenderType.UDP);
@@ -197,6 +346,116 @@ public class InfluxDbReporterFactoryTest {
         final InfluxDbUdpSender influxDb = argument.getValue();
 
         assertThat(getField(influxDb, InfluxDbUdpSender.class, "socketTimeout")).isEqualTo(3000);
+        assertThat(getField(influxDb, InfluxDbUdpSender.class, "maxDatagramBytes")).isEqualTo(8192);
+    }
+
+    @Test
+    public void shouldPassIntegerFieldsToBuilder() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class, "integerFields"))
+            .isEqualTo(false);
+
+        factory.setIntegerFields(true);
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class, "integerFields"))
+            .isEqualTo(true);
+    }
+
+    @Test
+    public void shouldPassAsyncOptionsToBuilder() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class, "async"))
+            .isEqualTo(false);
+
+        factory.setAsync(true);
+        factory.setAsyncQueueCapacity(3);
+        factory.setAsyncOverflowPolicy(OverflowPolicy.BLOCK);
+        factory.setAsyncBlockTimeout(Duration.seconds(2));
+        InfluxDbReporter.Builder builder = factory.builder(new MetricRegistry());
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "async")).isEqualTo(true);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "asyncQueueCapacity")).isEqualTo(3);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "asyncOverflowPolicy"))
+            .isEqualTo(OverflowPolicy.BLOCK);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "asyncBlockTimeoutMillis")).isEqualTo(2000L);
+    }
+
+    @Test
+    public void shouldOnlySplitReportsWhenBatchingIsConfigured() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class, "batching"))
+            .isEqualTo(false);
+
+        factory.setMaxBatchPoints(5000);
+        factory.setMaxInFlightBatches(2);
+        InfluxDbReporter.Builder builder = factory.builder(new MetricRegistry());
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "batching")).isEqualTo(true);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "maxBatchPoints")).isEqualTo(5000);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "maxBatchBytes")).isEqualTo(Integer.MAX_VALUE);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "maxInFlightBatches")).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldPassSpoolOptionsToBuilder() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class, "spoolFile"))
+            .isNull();
+
+        factory.setSpoolFile("/tmp/influxdb.spool");
+        factory.setSpoolSize(DataSize.mebibytes(1));
+        InfluxDbReporter.Builder builder = factory.builder(new MetricRegistry());
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "spoolFile"))
+            .isEqualTo(new File("/tmp/influxdb.spool"));
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "spoolCapacityBytes")).isEqualTo(1024 * 1024);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "spoolReplayBatchesPerSecond")).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldPassRetryAndCircuitBreakerOptionsToBuilder() {
+        InfluxDbReporter.Builder defaults = factory.builder(new MetricRegistry());
+        assertThat(getField(defaults, InfluxDbReporter.Builder.class, "retryPolicy")).isNull();
+        assertThat(getField(defaults, InfluxDbReporter.Builder.class, "circuitBreakerFailureThreshold")).isEqualTo(0);
+
+        factory.setRetryMaxAttempts(3);
+        factory.setCircuitBreakerFailureThreshold(5);
+        factory.setCircuitBreakerOpenDuration(Duration.minutes(1));
+        InfluxDbReporter.Builder builder = factory.builder(new MetricRegistry());
+        RetryPolicy retryPolicy = (RetryPolicy) getField(builder, InfluxDbReporter.Builder.class, "retryPolicy");
+        assertThat(retryPolicy.getMaxAttempts()).isEqualTo(3);
+        assertThat(retryPolicy.getBudget(TimeUnit.SECONDS)).isEqualTo(10);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "circuitBreakerFailureThreshold")).isEqualTo(5);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "circuitBreakerOpenMillis")).isEqualTo(60000L);
+    }
+
+    @Test
+    public void shouldCloseSenderOnStop() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class,
+            "closeSenderOnStop")).isEqualTo(true);
+    }
+
+    @Test
+    public void shouldCacheTagsOfTransformer() {
+        Object transformer = getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class,
+            "tagsTransformer");
+
+        assertThat(transformer).isInstanceOf(CachingTransformer.class);
+        assertThat(((CachingTransformer) transformer).getTransformer()).isSameAs(factory.getTagsTransformer());
+    }
+
+    @Test
+    public void shouldPassSelfMetricsToBuilder() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class,
+            "selfMetricsPrefix")).isNull();
+
+        factory.setSelfMetrics(true);
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class,
+            "selfMetricsPrefix")).isEqualTo("influxdb-reporter");
+    }
+
+    @Test
+    public void shouldPassParallelCollectionToBuilder() {
+        assertThat(getField(factory.builder(new MetricRegistry()), InfluxDbReporter.Builder.class,
+            "collectionParallelism")).isEqualTo(0);
+
+        factory.setCollectionParallelism(4);
+        factory.setCollectionPartitionSize(64);
+        InfluxDbReporter.Builder builder = factory.builder(new MetricRegistry());
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "collectionParallelism")).isEqualTo(4);
+        assertThat(getField(builder, InfluxDbReporter.Builder.class, "collectionPartitionSize")).isEqualTo(64);
     }
 
     @Test
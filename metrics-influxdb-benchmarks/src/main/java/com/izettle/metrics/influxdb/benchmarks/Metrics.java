@@ -0,0 +1,71 @@
+package com.izettle.metrics.influxdb.benchmarks;
+
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbSeriesKey;
+import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic metric names and points shaped like the ones a Dropwizard application reports.
+ */
+final class Metrics {
+
+    static final String[] KINDS = {"requests", "latency", "errors", "size", "active"};
+
+    private Metrics() {
+    }
+
+    /**
+     * @return metric names like {@code com.example.service17.Resource3.get.requests}
+     */
+    static String[] names(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "com.example.service" + (i % 97) + ".Resource" + (i % 13) + ".get" + i + "." + KINDS[i % 5];
+        }
+        return names;
+    }
+
+    /**
+     * Creates points for {@code count} metrics, spread over {@code cycles} timestamps as when several report cycles
+     * are batched together. Half of the points carry a series key like the points of the reporter do.
+     */
+    static List<InfluxDbPoint> points(int count, int cycles) {
+        Random random = new Random(count);
+        String[] names = names(count);
+        List<InfluxDbPoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("host", "app-server-01");
+            tags.put("env", "production");
+            tags.put("metricName", names[i]);
+
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("count", random.nextInt(1000000) + 0L);
+            if (i % 2 == 0) {
+                fields.put("p50", random.nextDouble() * 100);
+                fields.put("p99", random.nextDouble() * 1000);
+                fields.put("m1_rate", random.nextDouble() * 50);
+            }
+
+            long time = 1500000000000L + (i % cycles) * 60000L;
+            if (i % 2 == 0) {
+                points.add(new InfluxDbPoint(new InfluxDbSeriesKey(names[i], tags), time, fields));
+            } else {
+                points.add(new InfluxDbPoint(names[i], tags, time, fields));
+            }
+        }
+        return points;
+    }
+
+    static InfluxDbWriteObject writeObject(List<InfluxDbPoint> points) {
+        InfluxDbWriteObject writeObject = new InfluxDbWriteObject("benchmark", TimeUnit.MILLISECONDS);
+        writeObject.getPoints().addAll(points);
+        return writeObject;
+    }
+}
@@ -0,0 +1,76 @@
+package com.izettle.metrics.influxdb.benchmarks;
+
+import com.izettle.metrics.influxdb.InfluxDbSender;
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import com.izettle.metrics.influxdb.utils.InfluxDbWriteObjectSerializer;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sender that encodes points like the senders of the library do, but discards the encoded bytes. Benchmarks use it
+ * to measure collecting and encoding a report without any I/O.
+ */
+class NullSender implements InfluxDbSender {
+
+    private final InfluxDbWriteObject writeObject;
+    private final InfluxDbWriteObjectSerializer serializer;
+    private final LineProtocolBuffer buffer = new LineProtocolBuffer();
+    private long bytes;
+
+    NullSender(String database, TimeUnit timePrecision, String measurementPrefix) {
+        this.writeObject = new InfluxDbWriteObject(database, timePrecision);
+        this.serializer = new InfluxDbWriteObjectSerializer(measurementPrefix);
+    }
+
+    @Override
+    public void flush() {
+        writeObject.getPoints().clear();
+    }
+
+    @Override
+    public boolean hasSeriesData() {
+        return !writeObject.getPoints().isEmpty();
+    }
+
+    @Override
+    public void appendPoints(InfluxDbPoint point) {
+        if (point != null) {
+            writeObject.getPoints().add(point);
+        }
+    }
+
+    @Override
+    public int writeData() {
+        buffer.reset();
+        serializer.writeLineProtocol(writeObject, buffer);
+        bytes += buffer.size();
+        writeObject.getPoints().clear();
+        return 0;
+    }
+
+    @Override
+    public void setTags(Map<String, String> tags) {
+        if (tags != null) {
+            writeObject.setTags(tags);
+        }
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return writeObject.getTags();
+    }
+
+    @Override
+    public void setIntegerFields(boolean integerFields) {
+        serializer.setIntegerFields(integerFields);
+    }
+
+    /**
+     * @return the number of bytes encoded since the sender was created.
+     */
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,117 @@
+package com.izettle.metrics.influxdb.benchmarks;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.izettle.metrics.influxdb.InfluxDbReporter;
+import com.izettle.metrics.influxdb.tags.ClassBasedTransformer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full reporting cycle over a registry of gauges, counters, histograms, meters and timers, encoded by a sender that
+ * discards the bytes. The metrics are looked up in the registry once up front, but the snapshots of the histograms and
+ * timers are taken on every report, as they are when the reporter is scheduled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReporterBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int metrics;
+
+    @Param({"false", "true"})
+    public boolean groupGauges;
+
+    private NullSender sender;
+    private InfluxDbReporter reporter;
+    private SortedMap<String, Gauge> gauges;
+    private SortedMap<String, Counter> counters;
+    private SortedMap<String, Histogram> histograms;
+    private SortedMap<String, Meter> meters;
+    private SortedMap<String, Timer> timers;
+
+    @Setup
+    public void setUp() {
+        MetricRegistry registry = new MetricRegistry();
+        String[] names = Metrics.names(metrics);
+        for (int i = 0; i < names.length; i++) {
+            final long value = i;
+            switch (i % 5) {
+                case 0:
+                    registry.register(names[i], (Gauge<Long>) () -> value);
+                    break;
+                case 1:
+                    registry.counter(names[i]).inc(i);
+                    break;
+                case 2:
+                    Histogram histogram = registry.histogram(names[i]);
+                    for (int j = 0; j < 32; j++) {
+                        histogram.update(i + j);
+                    }
+                    break;
+                case 3:
+                    registry.meter(names[i]).mark(i);
+                    break;
+                default:
+                    Timer timer = registry.timer(names[i]);
+                    for (int j = 0; j < 32; j++) {
+                        timer.update(i + j, TimeUnit.MICROSECONDS);
+                    }
+                    break;
+            }
+        }
+        gauges = registry.getGauges();
+        counters = registry.getCounters();
+        histograms = registry.getHistograms();
+        meters = registry.getMeters();
+        timers = registry.getTimers();
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", "app-server-01");
+        tags.put("env", "production");
+        Map<String, String> measurementMappings = new HashMap<>();
+        measurementMappings.put("resources", ".*\\.Resource[0-4]\\..*");
+        measurementMappings.put("services", "com\\.example\\.service1.*");
+
+        sender = new NullSender("benchmark", TimeUnit.MILLISECONDS, "");
+        reporter = InfluxDbReporter.forRegistry(registry)
+            .withTags(tags)
+            .groupGauges(groupGauges)
+            .measurementMappings(measurementMappings)
+            .tagsTransformer(new ClassBasedTransformer())
+            .build(sender);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public long report() {
+        reporter.report(gauges, counters, histograms, meters, timers);
+        return sender.getBytes();
+    }
+}
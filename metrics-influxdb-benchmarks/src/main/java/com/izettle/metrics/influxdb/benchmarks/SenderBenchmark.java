@@ -0,0 +1,201 @@
+package com.izettle.metrics.influxdb.benchmarks;
+
+import com.izettle.metrics.influxdb.GroupedInfluxDbHttpSender;
+import com.izettle.metrics.influxdb.InfluxDBKafkaSender;
+import com.izettle.metrics.influxdb.InfluxDbHttpSender;
+import com.izettle.metrics.influxdb.InfluxDbLoggerSender;
+import com.izettle.metrics.influxdb.InfluxDbSender;
+import com.izettle.metrics.influxdb.InfluxDbTcpSender;
+import com.izettle.metrics.influxdb.InfluxDbUdpSender;
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and writes a batch of points with each sender, to a sink running in the same process: an HTTP server
+ * answering 204, TCP and UDP sockets that drain what they receive, the logger without a binding and a mock Kafka
+ * producer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SenderBenchmark {
+
+    public enum Type {
+        HTTP, HTTP_GZIP, GROUPED_HTTP, TCP, UDP, LOGGER, KAFKA
+    }
+
+    @Param
+    public Type type;
+
+    // Kept small enough for the whole batch to fit into a single datagram of the UDP sender.
+    @Param({"100"})
+    public int points;
+
+    private final ExecutorService sinks = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "benchmark-sink");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpServer httpServer;
+    private ServerSocket serverSocket;
+    private DatagramSocket datagramSocket;
+    private InfluxDbSender sender;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (type) {
+            case HTTP:
+                sender = new InfluxDbHttpSender("http", "localhost", startHttpSink(), "benchmark", "",
+                    TimeUnit.MILLISECONDS, 1000, 1000, "");
+                break;
+            case HTTP_GZIP:
+                sender = new InfluxDbHttpSender("http", "localhost", startHttpSink(), "benchmark", "",
+                    TimeUnit.MILLISECONDS, 1000, 1000, "", true, 1);
+                break;
+            case GROUPED_HTTP:
+                sender = new GroupedInfluxDbHttpSender("http", "localhost", startHttpSink(), "benchmark", "",
+                    TimeUnit.MILLISECONDS, 1000, 1000, "", "group");
+                break;
+            case TCP:
+                sender = new InfluxDbTcpSender("localhost", startTcpSink(), 1000, "benchmark", "");
+                break;
+            case UDP:
+                sender = new InfluxDbUdpSender("localhost", startUdpSink(), 1000, "benchmark", "");
+                break;
+            case LOGGER:
+                sender = new InfluxDbLoggerSender("benchmark", TimeUnit.MILLISECONDS, "");
+                break;
+            case KAFKA:
+                sender = new InfluxDBKafkaSender("benchmark", TimeUnit.MILLISECONDS, "", new DiscardingProducer());
+                break;
+            default:
+                throw new IllegalStateException("Unknown sender type " + type);
+        }
+        for (InfluxDbPoint point : Metrics.points(points, 1)) {
+            sender.appendPoints(point);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        if (datagramSocket != null) {
+            datagramSocket.close();
+        }
+        sinks.shutdownNow();
+    }
+
+    @Benchmark
+    public int writeData() throws Exception {
+        return sender.writeData();
+    }
+
+    private int startHttpSink() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpServer.createContext("/write", exchange -> {
+            drain(exchange.getRequestBody());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        httpServer.setExecutor(sinks);
+        httpServer.start();
+        return httpServer.getAddress().getPort();
+    }
+
+    private int startTcpSink() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        sinks.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    sinks.execute(() -> {
+                        try (Socket accepted = socket) {
+                            drain(accepted.getInputStream());
+                        } catch (IOException e) {
+                            // the sender went away
+                        }
+                    });
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        return serverSocket.getLocalPort();
+    }
+
+    private int startUdpSink() throws IOException {
+        datagramSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        sinks.execute(() -> {
+            DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+            while (!datagramSocket.isClosed()) {
+                try {
+                    datagramSocket.receive(packet);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        return datagramSocket.getLocalPort();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    /**
+     * A mock producer that does not keep the history of sent records, which would grow for as long as the benchmark
+     * runs.
+     */
+    private static final class DiscardingProducer extends MockProducer<byte[], byte[]> {
+        DiscardingProducer() {
+            super(true, new ByteArraySerializer(), new ByteArraySerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+            Future<RecordMetadata> future = super.send(record, callback);
+            clear();
+            return future;
+        }
+    }
+}
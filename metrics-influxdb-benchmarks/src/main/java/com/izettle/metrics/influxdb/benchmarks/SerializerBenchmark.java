@@ -0,0 +1,66 @@
+package com.izettle.metrics.influxdb.benchmarks;
+
+import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import com.izettle.metrics.influxdb.utils.InfluxDbWriteObjectSerializer;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes a batch of points with the plain and the grouped line protocol. The grouped encoding should scale linearly
+ * with the number of points, also when they span several report cycles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int points;
+
+    @Param({"1", "10"})
+    public int cycles;
+
+    private InfluxDbWriteObject writeObject;
+    private InfluxDbWriteObjectSerializer serializer;
+    private LineProtocolBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        writeObject = Metrics.writeObject(Metrics.points(points, cycles));
+        serializer = new InfluxDbWriteObjectSerializer("");
+        buffer = new LineProtocolBuffer();
+    }
+
+    @Benchmark
+    public int plain() {
+        buffer.reset();
+        serializer.writeLineProtocol(writeObject, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int grouped() {
+        buffer.reset();
+        serializer.writeGroupedLineProtocol(writeObject, "group", buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public String plainString() {
+        return serializer.getLineProtocolString(writeObject);
+    }
+}
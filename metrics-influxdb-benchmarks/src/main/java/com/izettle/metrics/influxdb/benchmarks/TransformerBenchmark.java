@@ -0,0 +1,61 @@
+package com.izettle.metrics.influxdb.benchmarks;
+
+import com.izettle.metrics.influxdb.tags.ClassBasedTransformer;
+import com.izettle.metrics.influxdb.tags.PositionBasedTransformer;
+import com.izettle.metrics.influxdb.tags.Transformer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracts the tags of one metric name per invocation, cycling through a set of names.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformerBenchmark {
+
+    private String[] names;
+    private int index;
+    private Transformer classBased;
+    private Transformer positionBased;
+
+    @Setup
+    public void setUp() {
+        names = Metrics.names(1024);
+        classBased = new ClassBasedTransformer();
+        Map<String, PositionBasedTransformer.Category> mappings = new HashMap<>();
+        mappings.put("service", new PositionBasedTransformer.Category(2, "com\\.example\\..*"));
+        mappings.put("className", new PositionBasedTransformer.Category(3, ".*\\.Resource.*"));
+        mappings.put("kind", new PositionBasedTransformer.Category(5, ".*\\.(requests|latency)$"));
+        positionBased = new PositionBasedTransformer(mappings);
+    }
+
+    @Benchmark
+    public Map<String, String> classBased() {
+        return classBased.getTags(nextName());
+    }
+
+    @Benchmark
+    public Map<String, String> positionBased() {
+        return positionBased.getTags(nextName());
+    }
+
+    private String nextName() {
+        index = (index + 1) & (names.length - 1);
+        return names[index];
+    }
+}
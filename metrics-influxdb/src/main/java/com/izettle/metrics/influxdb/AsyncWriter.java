@@ -0,0 +1,193 @@
+package com.izettle.metrics.influxdb;
+
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import java.net.ConnectException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes encoded reports from a dedicated thread, so that a slow InfluxDb does not hold up the reporter.
+ * <p>
+ * Reports are encoded into buffers borrowed from a pool, queued, and returned to the pool once written. When the
+ * queue is full a report is dropped or waited for according to the {@link OverflowPolicy}.
+ * </p>
+ */
+final class AsyncWriter {
+
+    interface Lines {
+        int write(byte[] lines, int length) throws Exception;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncWriter.class);
+    private static final AtomicInteger WRITER_COUNT = new AtomicInteger();
+    private static final LineProtocolBuffer END = new LineProtocolBuffer(0);
+
+    private final BlockingQueue<LineProtocolBuffer> queue;
+    private final BlockingQueue<LineProtocolBuffer> pool;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final Lines lines;
+    private final Thread thread;
+    private final AtomicLong droppedReports = new AtomicLong();
+    private volatile boolean closed;
+
+    AsyncWriter(int queueCapacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit, Lines lines) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity should be gt 0");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy should not be null");
+        }
+        if (blockTimeout < 0) {
+            throw new IllegalArgumentException("blockTimeout should be gte 0");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        // the queued reports, plus the one being written and the one being encoded
+        this.pool = new ArrayBlockingQueue<>(queueCapacity + 2);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+        this.lines = lines;
+        this.thread = new Thread(this::run, "influxdb-async-writer-" + WRITER_COUNT.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return an empty buffer to encode a report into, to be passed to {@link #submit(LineProtocolBuffer)}
+     */
+    LineProtocolBuffer borrow() {
+        LineProtocolBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return new LineProtocolBuffer();
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Queues the encoded report to be written, applying the overflow policy when the queue is full.
+     */
+    void submit(LineProtocolBuffer report) throws InterruptedException {
+        if (closed) {
+            drop(report);
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(report)) {
+                    LineProtocolBuffer oldest = queue.poll();
+                    if (oldest == END) {
+                        // closed since this report was accepted, the end has to stay queued for the writer to stop
+                        requeueEnd();
+                        drop(report);
+                        return;
+                    }
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(report)) {
+                    drop(report);
+                }
+                break;
+            case BLOCK:
+                if (!queue.offer(report, blockTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                    drop(report);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown overflow policy " + overflowPolicy);
+        }
+    }
+
+    int getQueuedReports() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of reports dropped because the queue was full, or because the writer was closed.
+     */
+    long getDroppedReports() {
+        return droppedReports.get();
+    }
+
+    /**
+     * Stops accepting reports and waits for the queued ones to be written. Reports still queued after the timeout are
+     * dropped.
+     */
+    void close(long timeout, TimeUnit unit) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            while (!queue.offer(END, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+        }
+        LineProtocolBuffer report;
+        while ((report = queue.poll()) != null) {
+            if (report != END) {
+                droppedReports.incrementAndGet();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            LineProtocolBuffer report;
+            try {
+                report = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (report == END) {
+                return;
+            }
+            try {
+                lines.write(report.array(), report.size());
+            } catch (ConnectException e) {
+                LOGGER.warn("Unable to connect to InfluxDB. Discarding data.");
+            } catch (Exception e) {
+                LOGGER.warn("Unable to report to InfluxDB with error '{}'. Discarding data.", e.getMessage());
+            } finally {
+                pool.offer(report);
+            }
+        }
+    }
+
+    private void requeueEnd() {
+        while (!queue.offer(END)) {
+            // reports queued behind the end, submitted while the writer was being closed
+            LineProtocolBuffer report = queue.poll();
+            if (report != null && report != END) {
+                drop(report);
+            }
+        }
+    }
+
+    private void drop(LineProtocolBuffer report) {
+        droppedReports.incrementAndGet();
+        pool.offer(report);
+    }
+}
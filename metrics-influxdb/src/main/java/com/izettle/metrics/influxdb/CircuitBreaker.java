@@ -0,0 +1,91 @@
+package com.izettle.metrics.influxdb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops a sender from writing to an InfluxDb that keeps failing, so that each report is skipped right away instead
+ * of waiting for its timeouts.
+ * <p>
+ * The breaker opens after {@code failureThreshold} consecutive failed attempts. While it is open, writes are
+ * skipped. Once it has been open for the open duration, a single write is let through as a probe: the breaker closes
+ * if the probe succeeds, and opens again if it fails. Only failures worth retrying, see
+ * {@link RetryPolicy#isRetryable(Exception)}, count, any other outcome shows that InfluxDb could be reached.
+ * </p>
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long skippedWrites;
+
+    /**
+     * @param failureThreshold the number of consecutive failed attempts that opens the breaker
+     * @param openDuration     how long the breaker stays open before letting a probe through
+     * @param unit             the unit of the open duration
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold should be gt 0");
+        }
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("openDuration should be gte 0");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * @return true if a write may be attempted, in which case its outcome has to be reported with
+     * {@link #onSuccess()} or {@link #onFailure()}
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt >= openNanos) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                skippedWrites++;
+                return false;
+            default:
+                // the probe is in flight
+                skippedWrites++;
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of writes skipped while the breaker was open.
+     */
+    public synchronized long getSkippedWrites() {
+        return skippedWrites;
+    }
+}
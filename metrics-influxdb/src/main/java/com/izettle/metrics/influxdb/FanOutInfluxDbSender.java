@@ -0,0 +1,178 @@
+package com.izettle.metrics.influxdb;
+
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import com.izettle.metrics.influxdb.utils.InfluxDbWriteObjectSerializer;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An implementation of InfluxDbSender that writes each report to several InfluxDb, e.g. a regional and a central
+ * one, from a single reporter.
+ * <p>
+ * The report is encoded once, by this sender, and the encoded lines are queued to every destination. Each destination
+ * is made asynchronous, see {@link InfluxDbBaseSender#setAsync(int, OverflowPolicy, long, TimeUnit)}, so that it
+ * writes from its own thread, with its own queue, timeouts, retries and spool. A slow or failing destination drops
+ * its own reports, it delays neither the others nor the reporter.
+ * </p>
+ * <p>
+ * The destinations have to be senders of this library with the same time precision. Their measurement prefix is not
+ * used, the lines are encoded with the prefix of this sender. Closing this sender closes the destinations.
+ * </p>
+ */
+public class FanOutInfluxDbSender implements InfluxDbSender {
+
+    private final List<InfluxDbBaseSender> destinations;
+    private final InfluxDbWriteObject influxDbWriteObject;
+    private final InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer;
+    // the cycles are encoded into the buffers of their segments, the destinations copy the lines into their queues
+    private final PointBuffer points = new PointBuffer();
+    private volatile SenderMetrics metrics;
+
+    /**
+     * @param measurementPrefix The prefix of all measurements
+     * @param destinations      The senders to write to
+     * @param queueCapacity     The number of reports each destination may hold while it is writing
+     * @param overflowPolicy    What a destination does with a report when its queue is full
+     * @param blockTimeout      How long the reporter may wait for room with {@link OverflowPolicy#BLOCK}
+     * @param unit              The unit of the block timeout
+     */
+    public FanOutInfluxDbSender(
+        final String measurementPrefix,
+        final List<? extends InfluxDbSender> destinations,
+        final int queueCapacity,
+        final OverflowPolicy overflowPolicy,
+        final long blockTimeout,
+        final TimeUnit unit) {
+        if (destinations.isEmpty()) {
+            throw new IllegalArgumentException("destinations should not be empty");
+        }
+        List<InfluxDbBaseSender> senders = new ArrayList<>(destinations.size());
+        for (InfluxDbSender destination : destinations) {
+            if (!(destination instanceof InfluxDbBaseSender)) {
+                throw new IllegalArgumentException(
+                    "Fanning out is not supported by " + destination.getClass().getName());
+            }
+            senders.add((InfluxDbBaseSender) destination);
+        }
+        TimeUnit timePrecision = senders.get(0).getTimePrecision();
+        for (InfluxDbBaseSender sender : senders) {
+            if (sender.getTimePrecision() != timePrecision) {
+                throw new IllegalArgumentException("destinations should have the same time precision");
+            }
+        }
+        for (InfluxDbBaseSender sender : senders) {
+            sender.setAsync(queueCapacity, overflowPolicy, blockTimeout, unit);
+        }
+        this.destinations = Collections.unmodifiableList(senders);
+        this.influxDbWriteObject = new InfluxDbWriteObject("", timePrecision);
+        this.influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer(measurementPrefix);
+    }
+
+    /**
+     * Discards the points appended by the calling thread and not written yet, see {@link InfluxDbBaseSender#flush()}.
+     */
+    @Override
+    public void flush() {
+        points.discard();
+    }
+
+    @Override
+    public boolean hasSeriesData() {
+        return !points.isEmpty();
+    }
+
+    @Override
+    public void appendPoints(InfluxDbPoint point) {
+        if (point != null) {
+            points.add(point);
+        }
+    }
+
+    /**
+     * Encodes the points appended since the last write, by any thread, and queues them to every destination.
+     *
+     * @return 0, the points are written asynchronously
+     */
+    @Override
+    public int writeData() throws Exception {
+        PointBuffer.Segment cycle = points.take();
+        if (cycle == null) {
+            return 0;
+        }
+        try {
+            SenderMetrics current = metrics;
+            long start = current == null ? 0 : System.nanoTime();
+            LineProtocolBuffer buffer = cycle.buffer;
+            buffer.reset();
+            influxDbWriteObjectSerializer.writeLineProtocol(cycle.writeObject(influxDbWriteObject), buffer);
+            if (current != null) {
+                current.serialized(start, cycle.points.size(), buffer.size());
+            }
+            for (InfluxDbBaseSender destination : destinations) {
+                destination.submitLines(buffer.array(), buffer.size());
+            }
+            return 0;
+        } finally {
+            points.recycle(cycle);
+        }
+    }
+
+    @Override
+    public void setTags(Map<String, String> tags) {
+        if (tags != null) {
+            influxDbWriteObject.setTags(tags);
+        }
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return influxDbWriteObject.getTags();
+    }
+
+    @Override
+    public void setIntegerFields(boolean integerFields) {
+        influxDbWriteObjectSerializer.setIntegerFields(integerFields);
+    }
+
+    public List<InfluxDbSender> getDestinations() {
+        return Collections.<InfluxDbSender>unmodifiableList(destinations);
+    }
+
+    void setMetrics(SenderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    List<InfluxDbBaseSender> destinations() {
+        return destinations;
+    }
+
+    /**
+     * Discards the points not written yet and closes every destination, writing the reports they still hold, even when
+     * closing one of them fails.
+     */
+    @Override
+    public void close() throws IOException {
+        points.clear();
+        IOException failure = null;
+        for (InfluxDbBaseSender destination : destinations) {
+            try {
+                destination.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
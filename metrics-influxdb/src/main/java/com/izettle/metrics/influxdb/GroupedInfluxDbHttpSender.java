@@ -3,7 +3,7 @@ package com.izettle.metrics.influxdb;
 import java.util.concurrent.TimeUnit;
 
 import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
-import com.izettle.metrics.influxdb.utils.InfluxDbWriteObjectSerializer;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
 
 /**
  * Passthrough to ultimately select a different style of serializer: grouped fields on one influxdb protocol line, instead of one field per
@@ -112,12 +112,34 @@ public class GroupedInfluxDbHttpSender extends InfluxDbHttpSender {
         this.groupMeasurement = groupMeasurement;
     }
 
+    /**
+     * Creates a new http sender given connection details, optionally gzip compressing the written lines. This sender
+     * groups all the fields under one measurement and transmit them as one measurement.
+     *
+     * @param protocol           the name of the protocol to use
+     * @param hostname           the influxDb hostname
+     * @param port               the influxDb http port
+     * @param database           the influxDb database to write to
+     * @param authString         the authorization string to be used to connect to InfluxDb, of format username:password
+     * @param timePrecision      the time precision of the metrics
+     * @param connectTimeout     the connect timeout
+     * @param readTimeout        the read timeout
+     * @param measurementPrefix  the measurement prefix
+     * @param groupMeasurement   the group measurement name
+     * @param compression        whether to gzip compress the request body
+     * @param compressionLevel   the deflate level to compress with, from 1 (fastest) to 9 (smallest)
+     * @throws Exception exception while creating the influxDb sender(MalformedURLException)
+     */
+    public GroupedInfluxDbHttpSender(String protocol, String hostname, int port, String database, String authString,
+            TimeUnit timePrecision, int connectTimeout, int readTimeout, String measurementPrefix, String groupMeasurement,
+            boolean compression, int compressionLevel) throws Exception {
+        super(protocol, hostname, port, database, authString, timePrecision, connectTimeout, readTimeout, measurementPrefix,
+            compression, compressionLevel);
+        this.groupMeasurement = groupMeasurement;
+    }
+
     @Override
-    public int writeData() throws Exception {
-        InfluxDbWriteObjectSerializer serializer = this.getSerializer();
-        InfluxDbWriteObject writeObject = this.getWriteObject();
-        String linestr = serializer.getGroupedLineProtocolString(writeObject, groupMeasurement);
-        final byte[] line = linestr.getBytes(UTF_8);
-        return super.writeData(line);
+    protected void serialize(InfluxDbWriteObject writeObject, LineProtocolBuffer buffer) {
+        getSerializer().writeGroupedLineProtocol(writeObject, groupMeasurement, buffer);
     }
 }
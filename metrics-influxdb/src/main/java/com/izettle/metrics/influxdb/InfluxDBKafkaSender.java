@@ -1,19 +1,62 @@
 package com.izettle.metrics.influxdb;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * An implementation of InfluxDbSender that writes the lines to a Kafka topic.
+ * <p>
+ * Records are sent asynchronously by the producer. A record that fails to be sent does not fail the write, it is
+ * counted by {@link #getFailedRecords()}. Closing the sender flushes the records the producer still holds.
+ * </p>
+ */
 public class InfluxDBKafkaSender extends InfluxDbBaseSender {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDBKafkaSender.class);
     private static final String KAFKA_CLIENT_ID = "metrics_influxdb_reporter";
-    private final KafkaProducer<byte[], byte[]> kafkaProducer;
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+    private final Producer<byte[], byte[]> kafkaProducer;
     private final String topic;
+    private final boolean ownsProducer;
+    private final KafkaRecordMode recordMode;
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final Callback callback = (metadata, exception) -> {
+        if (exception != null) {
+            failedRecords.incrementAndGet();
+            recordFailure(exception);
+            LOGGER.debug("Unable to send record to Kafka with error '{}'.", exception.getMessage());
+        }
+    };
 
     public InfluxDBKafkaSender(String database, TimeUnit timePrecision, String measurementPrefix) {
+        this(database, timePrecision, measurementPrefix, Collections.<String, Object>emptyMap(),
+            KafkaRecordMode.BATCH);
+    }
+
+    /**
+     * @param database           The topic and the brokers to write to, as topic@host1:port,host2:port
+     * @param timePrecision      The time precision of the points
+     * @param measurementPrefix  The prefix of all measurements
+     * @param producerProperties Properties of the producer, e.g. linger.ms, batch.size, compression.type or acks.
+     *                           The keys and values are always serialized as byte arrays.
+     * @param recordMode         How the lines are turned into records
+     */
+    public InfluxDBKafkaSender(String database, TimeUnit timePrecision, String measurementPrefix,
+        Map<String, ?> producerProperties, KafkaRecordMode recordMode) {
         super(database, timePrecision, measurementPrefix);
         int idx = database.indexOf("@");
         String hosts;
@@ -26,15 +69,109 @@ public class InfluxDBKafkaSender extends InfluxDbBaseSender {
         Properties props = new Properties();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, hosts);
         props.put(ProducerConfig.CLIENT_ID_CONFIG, KAFKA_CLIENT_ID);
+        props.putAll(producerProperties);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        this.recordMode = recordMode;
         kafkaProducer = new KafkaProducer<>(props);
+        ownsProducer = true;
+    }
+
+    /**
+     * Creates a sender writing to a producer created by the caller, e.g. one with custom configuration.
+     *
+     * @param topic             The topic to write into
+     * @param timePrecision     The time precision of the points
+     * @param measurementPrefix The prefix of all measurements
+     * @param kafkaProducer     The producer to send the records with
+     */
+    public InfluxDBKafkaSender(String topic, TimeUnit timePrecision, String measurementPrefix,
+        Producer<byte[], byte[]> kafkaProducer) {
+        this(topic, timePrecision, measurementPrefix, kafkaProducer, KafkaRecordMode.BATCH);
+    }
+
+    /**
+     * Creates a sender writing to a producer created by the caller, e.g. one with custom configuration.
+     *
+     * @param topic             The topic to write into
+     * @param timePrecision     The time precision of the points
+     * @param measurementPrefix The prefix of all measurements
+     * @param kafkaProducer     The producer to send the records with
+     * @param recordMode        How the lines are turned into records
+     */
+    public InfluxDBKafkaSender(String topic, TimeUnit timePrecision, String measurementPrefix,
+        Producer<byte[], byte[]> kafkaProducer, KafkaRecordMode recordMode) {
+        super(topic, timePrecision, measurementPrefix);
+        this.topic = topic;
+        this.kafkaProducer = kafkaProducer;
+        this.ownsProducer = false;
+        this.recordMode = recordMode;
     }
 
     @Override
-    protected int writeData(byte[] line) throws Exception {
-        ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(topic, null, line);
-        kafkaProducer.send(record);
+    protected int writeData(byte[] line, int offset, int length) throws Exception {
+        // The producer sends asynchronously, so the records need their own copy of the reused buffer.
+        if (recordMode == KafkaRecordMode.POINT) {
+            sendPoints(line, offset, length);
+        } else {
+            byte[] value = Arrays.copyOfRange(line, offset, offset + length);
+            kafkaProducer.send(new ProducerRecord<byte[], byte[]>(topic, null, value), callback);
+        }
         return 0;
     }
+
+    private void sendPoints(byte[] lines, int offset, int length) {
+        final int end = offset + length;
+        int start = offset;
+        while (start < end) {
+            int lineEnd = start;
+            int seriesEnd = -1;
+            while (lineEnd < end && lines[lineEnd] != '\n') {
+                if (lines[lineEnd] == '\\') {
+                    // an escaped character, e.g. a space in the measurement, never ends the series
+                    lineEnd++;
+                } else if (lines[lineEnd] == ' ' && seriesEnd == -1) {
+                    seriesEnd = lineEnd;
+                }
+                lineEnd++;
+            }
+            lineEnd = Math.min(lineEnd + 1, end);
+            byte[] key = Arrays.copyOfRange(lines, start, seriesEnd == -1 ? lineEnd : seriesEnd);
+            byte[] value = Arrays.copyOfRange(lines, start, lineEnd);
+            kafkaProducer.send(new ProducerRecord<>(topic, key, value), callback);
+            start = lineEnd;
+        }
+    }
+
+    @Override
+    protected boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    public KafkaRecordMode getRecordMode() {
+        return recordMode;
+    }
+
+    /**
+     * @return the number of records the producer failed to send, since the sender was created.
+     */
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    /**
+     * Flushes the records the producer still holds, and closes the producer unless it was created by the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (ownsProducer) {
+                kafkaProducer.close(CLOSE_TIMEOUT);
+            } else {
+                kafkaProducer.flush();
+            }
+        }
+    }
 }
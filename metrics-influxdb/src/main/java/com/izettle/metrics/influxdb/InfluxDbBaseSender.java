@@ -3,51 +3,649 @@ package com.izettle.metrics.influxdb;
 import com.izettle.metrics.influxdb.data.InfluxDbPoint;
 import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
 import com.izettle.metrics.influxdb.utils.InfluxDbWriteObjectSerializer;
+import com.izettle.metrics.influxdb.utils.LineBatches;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import com.izettle.metrics.influxdb.utils.RingFileSpool;
+import java.io.IOException;
+import java.net.ConnectException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A base implementation of InfluxDbSender
  */
 abstract class InfluxDbBaseSender implements InfluxDbSender {
     static final Charset UTF_8 = StandardCharsets.UTF_8;
+    /**
+     * Reports are written in a single request unless batching is configured.
+     */
+    public static final int DEFAULT_MAX_BATCH_POINTS = Integer.MAX_VALUE;
+    public static final int DEFAULT_MAX_BATCH_BYTES = Integer.MAX_VALUE;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+    /**
+     * How long closing an asynchronous sender waits for the queued reports to be written.
+     */
+    public static final long ASYNC_DRAIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDbBaseSender.class);
+    private static final AtomicInteger BATCH_WRITER_COUNT = new AtomicInteger();
+    private static final AtomicInteger SPOOL_REPLAYER_COUNT = new AtomicInteger();
     private final InfluxDbWriteObject influxDbWriteObject;
     private final InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer;
+    private final PointBuffer points = new PointBuffer();
+    private int maxBatchPoints = DEFAULT_MAX_BATCH_POINTS;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    private ExecutorService batchWriter;
+    private volatile AsyncWriter asyncWriter;
+    // held while writing by senders that do not support concurrent writes, as spooled batches are replayed from
+    // another thread
+    private final Object serialWrites = new Object();
+    private volatile RingFileSpool spool;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile SenderMetrics metrics;
+    private int replayBatchesPerSecond;
+    private ScheduledExecutorService spoolReplayer;
+    private final LineProtocolBuffer replayBuffer = new LineProtocolBuffer();
 
     InfluxDbBaseSender(final String database, final TimeUnit timePrecision, final String measurementPrefix) {
         this.influxDbWriteObject = new InfluxDbWriteObject(database, timePrecision);
         this.influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer(measurementPrefix);
     }
 
+    /**
+     * Discards the points appended by the calling thread and not written yet, those of a cycle that failed halfway.
+     * The points appended by other threads sharing the sender are kept for the next write.
+     */
     @Override
     public void flush() {
-        influxDbWriteObject.setPoints(new HashSet<>());
+        points.discard();
     }
 
     @Override
     public boolean hasSeriesData() {
-        return influxDbWriteObject.getPoints() != null && !influxDbWriteObject.getPoints().isEmpty();
+        return !points.isEmpty();
     }
 
+    /**
+     * Appends the point without locking, from any thread, see {@link PointBuffer}.
+     */
     @Override
     public void appendPoints(InfluxDbPoint point) {
         if (point != null) {
-            influxDbWriteObject.getPoints().add(point);
+            points.add(point);
         }
     }
 
+    /**
+     * Encodes the points appended since the last write, by any thread, and writes them, or queues them to be written
+     * when the sender is asynchronous, see {@link #setAsync(int, OverflowPolicy, long, TimeUnit)}. Points appended
+     * while this write is in progress are left for the next one.
+     *
+     * @return the response code of the last request, or 0 when the points were queued
+     */
     @Override
     public int writeData() throws Exception {
-        String linestr = influxDbWriteObjectSerializer.getLineProtocolString(influxDbWriteObject);
-        final byte[] line = linestr.getBytes(UTF_8);
+        return writeCycle(takeCycle());
+    }
+
+    /**
+     * Detaches the points appended so far, to be written by {@link #writeCycle(PointBuffer.Segment)}, possibly from
+     * another thread.
+     *
+     * @return the points, or null if none was appended
+     */
+    PointBuffer.Segment takeCycle() {
+        return points.take();
+    }
+
+    int writeCycle(PointBuffer.Segment cycle) throws Exception {
+        if (cycle == null) {
+            return 0;
+        }
+        try {
+            AsyncWriter async = asyncWriter;
+            if (async != null) {
+                LineProtocolBuffer report = async.borrow();
+                timedSerialize(cycle, report);
+                async.submit(report);
+                return 0;
+            }
+            cycle.buffer.reset();
+            timedSerialize(cycle, cycle.buffer);
+            return writeLines(cycle.buffer.array(), cycle.buffer.size(), cycle.batches);
+        } finally {
+            points.recycle(cycle);
+        }
+    }
+
+    private void timedSerialize(PointBuffer.Segment cycle, LineProtocolBuffer into) {
+        SenderMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        serialize(cycle.writeObject(influxDbWriteObject), into);
+        if (current != null) {
+            current.serialized(start, cycle.points.size(), into.size());
+        }
+    }
+
+    /**
+     * Queues lines encoded elsewhere, see {@link FanOutInfluxDbSender}, to be written from the thread of the
+     * asynchronous sender. The lines are copied, so the array may be reused once this method returns.
+     *
+     * @throws IllegalStateException if the sender is not asynchronous
+     */
+    void submitLines(byte[] lines, int length) throws InterruptedException {
+        AsyncWriter async = asyncWriter;
+        if (async == null) {
+            throw new IllegalStateException("The sender is not asynchronous");
+        }
+        LineProtocolBuffer report = async.borrow();
+        report.append(lines, 0, length);
+        async.submit(report);
+    }
+
+    TimeUnit getTimePrecision() {
+        return influxDbWriteObject.getPrecision();
+    }
+
+    private int writeLines(byte[] lines, int length, LineBatches batches) throws Exception {
+        SenderMetrics current = metrics;
+        if (current == null) {
+            return writeReport(lines, length, batches);
+        }
+        long start = System.nanoTime();
+        try {
+            return writeReport(lines, length, batches);
+        } finally {
+            current.sent(start);
+        }
+    }
+
+    /**
+     * Writes a report from the thread of the asynchronous writer, where no reporter counts it as discarded when it
+     * fails.
+     */
+    private int writeQueued(byte[] lines, int length, LineBatches batches) throws Exception {
+        try {
+            return writeLines(lines, length, batches);
+        } catch (Exception e) {
+            SenderMetrics current = metrics;
+            if (current != null) {
+                current.discarded();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a failure of the sender that happened outside of a request, e.g. in a callback of the Kafka producer.
+     */
+    void recordFailure(Exception failure) {
+        SenderMetrics current = metrics;
+        if (current != null) {
+            current.failed(failure);
+        }
+    }
+
+    private int writeReport(byte[] lines, int length, LineBatches batches) throws Exception {
+        // the retry budget is shared by all batches of the report
+        long deadline = System.nanoTime() + retryPolicy.getBudget(TimeUnit.NANOSECONDS);
+        batches.split(lines, 0, length, maxBatchPoints, maxBatchBytes);
+        if (batches.count() <= 1) {
+            return writeOrSpool(lines, 0, length, deadline);
+        }
+        if (maxInFlightBatches > 1 && supportsConcurrentWrites()) {
+            return writeBatchesConcurrently(lines, batches, deadline);
+        }
+        return writeBatches(lines, batches, deadline);
+    }
+
+    /**
+     * Writes the batches one after the other. A failed batch does not stop the following ones from being written, the
+     * first failure is thrown once all batches have been attempted, with the others added as suppressed.
+     */
+    private int writeBatches(byte[] lines, LineBatches batches, long deadline) throws Exception {
+        Exception failure = null;
+        int result = 0;
+        for (int i = 0; i < batches.count(); i++) {
+            try {
+                result = writeOrSpool(lines, batches.offset(i), batches.length(i), deadline);
+            } catch (Exception e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the batches from a pool of {@code maxInFlightBatches} threads and waits for all of them, since the
+     * encoded lines are reused by the next cycle. Failures are handled as by
+     * {@link #writeBatches(byte[], LineBatches, long)}.
+     */
+    private int writeBatchesConcurrently(final byte[] lines, final LineBatches batches, final long deadline)
+        throws Exception {
+        ExecutorService executor = batchWriter();
+        List<Future<Integer>> results = new ArrayList<>(batches.count());
+        for (int i = 0; i < batches.count(); i++) {
+            final int offset = batches.offset(i);
+            final int length = batches.length(i);
+            results.add(executor.submit(() -> writeOrSpool(lines, offset, length, deadline)));
+        }
+
+        // Wait for every batch even when interrupted, the next cycle must not reuse the lines while they are written.
+        boolean interrupted = false;
+        Exception failure = null;
+        int result = 0;
+        for (Future<Integer> future : results) {
+            while (true) {
+                try {
+                    result = future.get();
+                    break;
+                } catch (ExecutionException e) {
+                    failure = addFailure(failure, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * Writes a batch, appending it to the spool, if any, when the write fails in a way that writing it again may fix,
+     * see {@link RetryPolicy#isRetryable(Exception)}. A batch InfluxDb rejected would be rejected again.
+     */
+    private int writeOrSpool(byte[] lines, int offset, int length, long deadline) throws Exception {
+        try {
+            return writeWithRetry(lines, offset, length, deadline);
+        } catch (Exception e) {
+            RingFileSpool current = spool;
+            if (current != null && RetryPolicy.isRetryable(e)) {
+                current.append(lines, offset, length);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a batch, retrying as the retry policy allows until the deadline, unless the circuit breaker is open.
+     *
+     * @throws ConnectException if the circuit breaker is open and the batch was not written
+     */
+    private int writeWithRetry(byte[] lines, int offset, int length, long deadline) throws Exception {
+        final RetryPolicy policy = retryPolicy;
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.allowRequest()) {
+            throw new ConnectException("Skipped writing to InfluxDB while the circuit breaker is open");
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int result = writeBatch(lines, offset, length);
+                if (breaker != null) {
+                    breaker.onSuccess();
+                }
+                return result;
+            } catch (Exception e) {
+                boolean retryable = RetryPolicy.isRetryable(e);
+                if (breaker != null) {
+                    if (retryable) {
+                        breaker.onFailure();
+                    } else {
+                        breaker.onSuccess();
+                    }
+                }
+                if (!retryable || attempt >= policy.getMaxAttempts()) {
+                    throw e;
+                }
+                long backoff = policy.backoffNanos(attempt);
+                if (deadline - System.nanoTime() < backoff) {
+                    throw e;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                if (breaker != null && !breaker.allowRequest()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private int writeBatch(byte[] lines, int offset, int length) throws Exception {
+        SenderMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        try {
+            if (supportsConcurrentWrites()) {
+                return writeData(lines, offset, length);
+            }
+            synchronized (serialWrites) {
+                return writeData(lines, offset, length);
+            }
+        } catch (Exception e) {
+            if (current != null) {
+                current.failed(e);
+            }
+            throw e;
+        } finally {
+            if (current != null) {
+                current.requested(start);
+            }
+        }
+    }
 
-        return writeData(line);
+    private static Exception addFailure(Exception failure, Exception e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
     }
 
-    protected abstract int writeData(byte[] line) throws Exception;
+    private synchronized ExecutorService batchWriter() {
+        if (batchWriter == null) {
+            final int id = BATCH_WRITER_COUNT.incrementAndGet();
+            final AtomicInteger threads = new AtomicInteger();
+            batchWriter = Executors.newFixedThreadPool(maxInFlightBatches, runnable -> {
+                Thread thread = new Thread(runnable, "influxdb-batch-writer-" + id + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return batchWriter;
+    }
+
+    /**
+     * Whether {@link #writeData(byte[], int, int)} can be called from several threads at once, which is what allows
+     * batches to be written concurrently. False by default.
+     */
+    protected boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    /**
+     * Limits the number of points written per request. Reports with more points are split into several requests.
+     *
+     * @param maxBatchPoints the maximum number of points, or lines for the grouped sender, per request
+     */
+    public void setMaxBatchPoints(int maxBatchPoints) {
+        if (maxBatchPoints <= 0) {
+            throw new IllegalArgumentException("maxBatchPoints should be gt 0");
+        }
+        this.maxBatchPoints = maxBatchPoints;
+    }
+
+    /**
+     * Limits the size of the encoded points written per request. A single point larger than this is still written,
+     * in a request of its own.
+     *
+     * @param maxBatchBytes the maximum number of bytes per request, before any compression
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes <= 0) {
+            throw new IllegalArgumentException("maxBatchBytes should be gt 0");
+        }
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Sets how many batches of a report may be written at the same time. Senders writing over a single connection
+     * always write their batches one at a time.
+     *
+     * @param maxInFlightBatches the maximum number of concurrent requests
+     */
+    public synchronized void setMaxInFlightBatches(int maxInFlightBatches) {
+        if (maxInFlightBatches <= 0) {
+            throw new IllegalArgumentException("maxInFlightBatches should be gt 0");
+        }
+        this.maxInFlightBatches = maxInFlightBatches;
+        if (batchWriter != null) {
+            batchWriter.shutdown();
+            batchWriter = null;
+        }
+    }
+
+    /**
+     * Writes reports from a dedicated thread instead of the reporter's. {@link #writeData()} then only encodes the
+     * points and queues them, so that a slow InfluxDb does not delay the next report. Failed writes are logged.
+     *
+     * @param queueCapacity  the maximum number of reports waiting to be written
+     * @param overflowPolicy what to do with a report when the queue is full
+     * @param blockTimeout   how long to wait for room in the queue, for {@link OverflowPolicy#BLOCK}
+     * @param unit           the unit of the block timeout
+     */
+    public void setAsync(int queueCapacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+        AsyncWriter previous;
+        synchronized (this) {
+            previous = asyncWriter;
+            // only ever used by the thread of the writer
+            final LineBatches writerBatches = new LineBatches();
+            asyncWriter = new AsyncWriter(queueCapacity, overflowPolicy, blockTimeout, unit,
+                (lines, length) -> writeQueued(lines, length, writerBatches));
+        }
+        if (previous != null) {
+            previous.close(ASYNC_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Keeps the batches that fail to be written in the spool, and writes them again from a background thread once
+     * InfluxDb can be reached. Spooled batches are written at most {@code replayBatchesPerSecond} per second, oldest
+     * first, alongside the new ones. The spool is closed with the sender. A sender has at most one spool.
+     *
+     * @param spool                  the spool to keep failed batches in
+     * @param replayBatchesPerSecond the maximum number of spooled batches written per second
+     * @throws IllegalStateException if the sender already has a spool
+     */
+    public synchronized void setSpool(RingFileSpool spool, int replayBatchesPerSecond) {
+        if (spool == null) {
+            throw new IllegalArgumentException("spool should not be null");
+        }
+        if (replayBatchesPerSecond <= 0) {
+            throw new IllegalArgumentException("replayBatchesPerSecond should be gt 0");
+        }
+        if (this.spool != null) {
+            throw new IllegalStateException("The sender already has a spool");
+        }
+        this.spool = spool;
+        this.replayBatchesPerSecond = replayBatchesPerSecond;
+        if (spoolReplayer == null) {
+            final String name = "influxdb-spool-replayer-" + SPOOL_REPLAYER_COUNT.incrementAndGet();
+            spoolReplayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            spoolReplayer.scheduleWithFixedDelay(this::replaySpool, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes spooled batches, oldest first, stopping at the first one that fails in a way that may be fixed by
+     * writing it again, which stays in the spool. A batch InfluxDb rejects is removed, so that it does not hold up the
+     * newer ones. Called every second from the replayer thread.
+     */
+    void replaySpool() {
+        RingFileSpool current = spool;
+        if (current == null) {
+            return;
+        }
+        try {
+            int limit;
+            synchronized (this) {
+                limit = replayBatchesPerSecond;
+            }
+            for (int i = 0; i < limit; i++) {
+                long position = current.peek(replayBuffer);
+                if (position < 0) {
+                    break;
+                }
+                try {
+                    // no retries, the spooled batch is attempted again on the next run
+                    writeWithRetry(replayBuffer.array(), 0, replayBuffer.size(), System.nanoTime());
+                } catch (Exception e) {
+                    if (RetryPolicy.isRetryable(e)) {
+                        LOGGER.debug("Unable to replay spooled data to InfluxDB with error '{}'.", e.getMessage());
+                        break;
+                    }
+                    LOGGER.warn("InfluxDB rejected spooled data with error '{}'. Discarding data.", e.getMessage());
+                }
+                current.remove(position);
+            }
+            current.flush();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to replay spooled data to InfluxDB with error '{}'.", e.getMessage());
+        }
+    }
+
+    /**
+     * Sets how failed writes are retried, by default they are not.
+     *
+     * @param retryPolicy the policy for retrying failed writes
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy should not be null");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Skips writes while InfluxDb keeps failing, as decided by the circuit breaker. By default writes are never
+     * skipped.
+     *
+     * @param circuitBreaker the breaker for this sender, not to be shared with other senders
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the circuit breaker of the sender, or null if it has none.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the spool failed batches are kept in, or null if they are discarded.
+     */
+    public RingFileSpool getSpool() {
+        return spool;
+    }
+
+    void setMetrics(SenderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of reports queued by an asynchronous sender, waiting to be written.
+     */
+    public int getQueuedReports() {
+        AsyncWriter async = asyncWriter;
+        return async == null ? 0 : async.getQueuedReports();
+    }
+
+    /**
+     * @return the number of reports an asynchronous sender dropped, because its queue was full or it was closed.
+     */
+    public long getDroppedReports() {
+        AsyncWriter async = asyncWriter;
+        return async == null ? 0 : async.getDroppedReports();
+    }
+
+    /**
+     * Waits for the reports queued by an asynchronous sender to be written, stops the threads writing batches
+     * concurrently and replaying the spool, and closes the spool. Batches still spooled are replayed once a sender is
+     * opened with the same spool file, points appended since the last write are discarded. Subclasses holding
+     * connections close them as well, once the queued reports are written.
+     */
+    @Override
+    public void close() throws IOException {
+        // not holding the lock while draining, as writing batches takes it
+        AsyncWriter async = asyncWriter;
+        if (async != null) {
+            async.close(ASYNC_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        ScheduledExecutorService replayer;
+        synchronized (this) {
+            if (batchWriter != null) {
+                batchWriter.shutdown();
+                batchWriter = null;
+            }
+            replayer = spoolReplayer;
+            spoolReplayer = null;
+        }
+        if (replayer != null) {
+            replayer.shutdown();
+            try {
+                replayer.awaitTermination(ASYNC_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // points appended after the last write are never written, they should not outlive the sender
+        points.clear();
+        RingFileSpool current = spool;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Encodes the points of a cycle into the line protocol buffer. Cycles may be encoded concurrently, each with its own
+     * write object, which holds the database, precision and tags of the sender.
+     *
+     * @param writeObject the points of the cycle
+     * @param buffer      the buffer to write the line protocol to
+     */
+    protected void serialize(InfluxDbWriteObject writeObject, LineProtocolBuffer buffer) {
+        influxDbWriteObjectSerializer.writeLineProtocol(writeObject, buffer);
+    }
+
+    protected int writeData(byte[] line) throws Exception {
+        return writeData(line, 0, line.length);
+    }
+
+    /**
+     * Writes encoded line protocol to InfluxDb. The array may be reused once this method returns, so implementations
+     * that hold on to the data have to copy it.
+     *
+     * @param line   the array holding the encoded lines
+     * @param offset the offset of the first byte to write
+     * @param length the number of bytes to write
+     * @return the response code for the request sent to InfluxDb.
+     * @throws Exception exception while writing to InfluxDb api
+     */
+    protected abstract int writeData(byte[] line, int offset, int length) throws Exception;
 
     @Override
     public void setTags(Map<String, String> tags) {
@@ -61,6 +659,11 @@ abstract class InfluxDbBaseSender implements InfluxDbSender {
         return influxDbWriteObject.getTags();
     }
 
+    @Override
+    public void setIntegerFields(boolean integerFields) {
+        influxDbWriteObjectSerializer.setIntegerFields(integerFields);
+    }
+
     protected InfluxDbWriteObject getWriteObject() {
         return this.influxDbWriteObject;
     }
@@ -0,0 +1,22 @@
+package com.izettle.metrics.influxdb;
+
+import java.io.IOException;
+
+/**
+ * Thrown when InfluxDb responds to a write with a status code other than 2XX.
+ */
+public class InfluxDbHttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+
+    public InfluxDbHttpException(final int responseCode, final String message) {
+        super(message);
+        this.responseCode = responseCode;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+}
@@ -1,12 +1,18 @@
 package com.izettle.metrics.influxdb;
 
+import com.izettle.metrics.influxdb.utils.GzipCompressor;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
 import com.izettle.metrics.influxdb.utils.TimeUtils;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 import org.apache.commons.codec.binary.Base64;
 
 /**
@@ -19,6 +25,10 @@ public class InfluxDbHttpSender extends InfluxDbBaseSender {
     private final String authStringEncoded;
     private final int connectTimeout;
     private final int readTimeout;
+    private final boolean compression;
+    private final int compressionLevel;
+    // Compressors are not thread safe, each batch written concurrently takes one of its own.
+    private final Queue<GzipCompressor> compressors = new ConcurrentLinkedQueue<>();
 
     /**
      * Creates a new http sender given connection details.
@@ -36,6 +46,31 @@ public class InfluxDbHttpSender extends InfluxDbBaseSender {
         final String protocol, final String hostname, final int port, final String database, final String authString,
         final TimeUnit timePrecision, final int connectTimeout, final int readTimeout, final String measurementPrefix)
         throws Exception {
+        this(protocol, hostname, port, database, authString, timePrecision, connectTimeout, readTimeout,
+            measurementPrefix, false, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Creates a new http sender given connection details, optionally gzip compressing the written lines. Line
+     * protocol compresses well since measurement names and tags repeat on every line, so compression trades a little
+     * CPU for a much smaller request.
+     *
+     * @param hostname         the influxDb hostname
+     * @param port             the influxDb http port
+     * @param database         the influxDb database to write to
+     * @param authString       the authorization string to be used to connect to InfluxDb, of format username:password
+     * @param timePrecision    the time precision of the metrics
+     * @param connectTimeout   the connect timeout
+     * @param readTimeout      the read timeout
+     * @param compression      whether to gzip compress the request body
+     * @param compressionLevel the deflate level to compress with, from 1 (fastest) to 9 (smallest)
+     * @throws Exception exception while creating the influxDb sender(MalformedURLException)
+     */
+    public InfluxDbHttpSender(
+        final String protocol, final String hostname, final int port, final String database, final String authString,
+        final TimeUnit timePrecision, final int connectTimeout, final int readTimeout, final String measurementPrefix,
+        final boolean compression, final int compressionLevel)
+        throws Exception {
         super(database, timePrecision, measurementPrefix);
 
         String endpoint = new URL(protocol, hostname, port, "/write").toString();
@@ -51,6 +86,11 @@ public class InfluxDbHttpSender extends InfluxDbBaseSender {
 
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        if (compression) {
+            compressors.add(new GzipCompressor(compressionLevel));
+        }
     }
 
     @Deprecated
@@ -61,7 +101,7 @@ public class InfluxDbHttpSender extends InfluxDbBaseSender {
     }
 
     @Override
-    protected int writeData(byte[] line) throws Exception {
+    protected int writeData(byte[] line, int offset, int length) throws Exception {
         final HttpURLConnection con = (HttpURLConnection) url.openConnection();
         con.setRequestMethod("POST");
         if (authStringEncoded != null && !authStringEncoded.isEmpty()) {
@@ -70,23 +110,81 @@ public class InfluxDbHttpSender extends InfluxDbBaseSender {
         con.setDoOutput(true);
         con.setConnectTimeout(connectTimeout);
         con.setReadTimeout(readTimeout);
-
-        OutputStream out = con.getOutputStream();
-        try {
-            out.write(line);
-            out.flush();
-        } finally {
-            out.close();
+        if (compression) {
+            GzipCompressor compressor = compressors.poll();
+            if (compressor == null) {
+                compressor = new GzipCompressor(compressionLevel);
+            }
+            try {
+                LineProtocolBuffer compressed = compressor.compress(line, offset, length);
+                con.setRequestProperty("Content-Encoding", "gzip");
+                write(con, compressed.array(), 0, compressed.size());
+            } finally {
+                compressors.offer(compressor);
+            }
+        } else {
+            write(con, line, offset, length);
         }
 
         int responseCode = con.getResponseCode();
 
         // Check if non 2XX response code.
         if (responseCode / 100 != 2) {
-            throw new IOException(
+            String responseMessage = con.getResponseMessage();
+            drain(con.getErrorStream());
+            throw new InfluxDbHttpException(responseCode,
                 "Server returned HTTP response code: " + responseCode + " for URL: " + url + " with content :'"
-                    + con.getResponseMessage() + "'");
+                    + responseMessage + "'");
         }
+        drain(con.getInputStream());
         return responseCode;
     }
+
+    @Override
+    protected boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    /**
+     * Releases the native memory of the pooled compressors.
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        GzipCompressor compressor;
+        while ((compressor = compressors.poll()) != null) {
+            compressor.end();
+        }
+    }
+
+    private static void write(HttpURLConnection con, byte[] line, int offset, int length) throws IOException {
+        // Stream the body straight from the encoded buffer instead of letting the connection buffer a copy of it.
+        con.setFixedLengthStreamingMode(length);
+
+        OutputStream out = con.getOutputStream();
+        try {
+            out.write(line, offset, length);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the rest of the response and closes the stream, which hands the connection back to the keep-alive cache
+     * of {@link HttpURLConnection}. The next write then reuses it instead of paying for a new TCP (and TLS) handshake.
+     */
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] discard = new byte[512];
+            while (in.read(discard) != -1) {
+                // discard the response body, InfluxDb answers writes with 204 and an empty body
+            }
+        } finally {
+            in.close();
+        }
+    }
 }
@@ -15,8 +15,13 @@ public class InfluxDbLoggerSender extends InfluxDbBaseSender {
     }
 
     @Override
-    protected int writeData(byte[] line) throws Exception {
-        logger.info(new String(line, Charsets.UTF_8));
+    protected int writeData(byte[] line, int offset, int length) throws Exception {
+        logger.info(new String(line, offset, length, Charsets.UTF_8));
         return 0;
     }
+
+    @Override
+    protected boolean supportsConcurrentWrites() {
+        return true;
+    }
 }
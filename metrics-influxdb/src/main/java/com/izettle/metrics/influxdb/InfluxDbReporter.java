@@ -6,20 +6,37 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbSeriesKey;
+import com.izettle.metrics.influxdb.utils.MeasurementMatcher;
+import com.izettle.metrics.influxdb.utils.RingFileSpool;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.ConnectException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -29,6 +46,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public final class InfluxDbReporter extends ScheduledReporter {
+    /**
+     * The prefix of the metrics the reporter keeps about itself, when enabled by the Dropwizard factory.
+     */
+    public static final String DEFAULT_SELF_METRICS_PREFIX = "influxdb-reporter";
+    /**
+     * The number of metrics collected by each task, when collecting in parallel.
+     */
+    public static final int DEFAULT_COLLECTION_PARTITION_SIZE = 256;
+
     public static class Builder {
         private final MetricRegistry registry;
         private Map<String, String> tags;
@@ -41,6 +67,26 @@ public final class InfluxDbReporter extends ScheduledReporter {
         private Set<String> includeMeterFields;
         private Map<String, Pattern> measurementMappings;
         private Transformer tagsTransformer;
+        private boolean integerFields;
+        private int maxBatchPoints = InfluxDbBaseSender.DEFAULT_MAX_BATCH_POINTS;
+        private int maxBatchBytes = InfluxDbBaseSender.DEFAULT_MAX_BATCH_BYTES;
+        private int maxInFlightBatches = InfluxDbBaseSender.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+        private boolean batching;
+        private int asyncQueueCapacity;
+        private OverflowPolicy asyncOverflowPolicy;
+        private long asyncBlockTimeoutMillis;
+        private boolean async;
+        private File spoolFile;
+        private int spoolCapacityBytes;
+        private int spoolReplayBatchesPerSecond;
+        private RetryPolicy retryPolicy;
+        private int circuitBreakerFailureThreshold;
+        private long circuitBreakerOpenMillis;
+        private String selfMetricsPrefix;
+        private ForkJoinPool collectionPool;
+        private int collectionParallelism;
+        private int collectionPartitionSize;
+        private boolean closeSenderOnStop;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -143,13 +189,14 @@ public final class InfluxDbReporter extends ScheduledReporter {
 
         /**
          * Map measurement to a defined measurement name, where the key is the measurement name
-         * and the value is the reqex the measurement should be mapped by.
+         * and the value is the reqex the measurement should be mapped by. A metric is mapped by the first regex, in
+         * the iteration order of the map, matching its whole name, see {@link MeasurementMatcher}.
          *
          * @param measurementMappings
          * @return {@code this}
          */
         public Builder measurementMappings(Map<String, String> measurementMappings) {
-            Map<String, Pattern> mappingsByPattern = new HashMap<String, Pattern>();
+            Map<String, Pattern> mappingsByPattern = new LinkedHashMap<String, Pattern>();
 
             for (Map.Entry<String, String> entry : measurementMappings.entrySet()) {
                 try {
@@ -169,23 +216,315 @@ public final class InfluxDbReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Report integral values, like counts, as InfluxDb integers instead of floats. Integers are stored more
+         * compactly, but InfluxDb will reject them for fields that already hold floats.
+         *
+         * @param integerFields true/false for writing integral values as integers
+         * @return {@code this}
+         */
+        public Builder integerFields(boolean integerFields) {
+            this.integerFields = integerFields;
+            return this;
+        }
+
+        /**
+         * Split reports into batches written as separate requests, of at most {@code maxBatchPoints} points and
+         * {@code maxBatchBytes} bytes, writing up to {@code maxInFlightBatches} of them at the same time. Only
+         * applies to the senders of this library, by default a report is written in a single request. InfluxDb
+         * recommends batches of 5000 points.
+         *
+         * @param maxBatchPoints     the maximum number of points per request
+         * @param maxBatchBytes      the maximum size of the encoded points per request
+         * @param maxInFlightBatches the maximum number of requests written at the same time
+         * @return {@code this}
+         */
+        public Builder batching(int maxBatchPoints, int maxBatchBytes, int maxInFlightBatches) {
+            this.maxBatchPoints = maxBatchPoints;
+            this.maxBatchBytes = maxBatchBytes;
+            this.maxInFlightBatches = maxInFlightBatches;
+            this.batching = true;
+            return this;
+        }
+
+        /**
+         * Write reports from a dedicated thread, so that a slow InfluxDb does not delay collecting the next report.
+         * Each report is encoded and queued by the reporter, queued reports are written when the reporter is stopped.
+         * Only applies to the senders of this library.
+         *
+         * @param queueCapacity  the maximum number of reports waiting to be written
+         * @param overflowPolicy what to do with a report when the queue is full
+         * @param blockTimeout   how long to wait for room in the queue, for {@link OverflowPolicy#BLOCK}
+         * @param unit           the unit of the block timeout
+         * @return {@code this}
+         */
+        public Builder async(int queueCapacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+            this.asyncQueueCapacity = queueCapacity;
+            this.asyncOverflowPolicy = overflowPolicy;
+            this.asyncBlockTimeoutMillis = unit.toMillis(blockTimeout);
+            this.async = true;
+            return this;
+        }
+
+        /**
+         * Keep the batches that fail to be written in a memory-mapped ring file, and write them again once InfluxDb
+         * can be reached. The file keeps the batches across restarts, and the oldest ones are evicted when it is
+         * full. Only applies to the senders of this library.
+         *
+         * @param file                   the spool file, created if it does not exist
+         * @param capacityBytes          the size of the spool
+         * @param replayBatchesPerSecond the maximum number of spooled batches written per second
+         * @return {@code this}
+         */
+        public Builder spool(File file, int capacityBytes, int replayBatchesPerSecond) {
+            this.spoolFile = file;
+            this.spoolCapacityBytes = capacityBytes;
+            this.spoolReplayBatchesPerSecond = replayBatchesPerSecond;
+            return this;
+        }
+
+        /**
+         * Retry failed writes with exponential backoff and jitter, see {@link RetryPolicy}. Only applies to the
+         * senders of this library, by default writes are not retried.
+         *
+         * @param retryPolicy the policy for retrying failed writes
+         * @return {@code this}
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Skip writes while InfluxDb keeps failing, see {@link CircuitBreaker}. Only applies to the senders of this
+         * library.
+         *
+         * @param failureThreshold the number of consecutive failed attempts that stops writing
+         * @param openDuration     how long to skip writes before trying again
+         * @param unit             the unit of the open duration
+         * @return {@code this}
+         */
+        public Builder circuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+            this.circuitBreakerFailureThreshold = failureThreshold;
+            this.circuitBreakerOpenMillis = unit.toMillis(openDuration);
+            return this;
+        }
+
+        /**
+         * Keep metrics about the reporter itself in the registry, so that they are reported along with the others:
+         * <ul>
+         * <li>{@code cycle} and {@code collect}, timers of whole reports and of collecting the points</li>
+         * <li>{@code serialize}, {@code send} and {@code requests}, timers of encoding the points, of writing them,
+         * retries included, and of each attempt to write a batch</li>
+         * <li>{@code points} and {@code bytes}, histograms of the points and encoded bytes per report</li>
+         * <li>{@code failures.<cause>}, meters of the failed attempts by the class of the failure</li>
+         * <li>{@code discarded}, a meter of the reports that failed and were discarded, from the thread of
+         * asynchronous senders too</li>
+         * <li>{@code queued} and {@code dropped}, gauges of the reports waiting to be written and dropped by
+         * asynchronous senders</li>
+         * </ul>
+         * Only the cycle, collect and discarded metrics are kept for senders that are not of this library.
+         *
+         * @param prefix the prefix of the names of the metrics, e.g. {@code influxdb-reporter}
+         * @return {@code this}
+         */
+        public Builder selfMetrics(String prefix) {
+            this.selfMetricsPrefix = prefix;
+            return this;
+        }
+
+        /**
+         * Collect the counters, histograms, meters and timers of a report on a pool of threads, so that taking the
+         * snapshots of large registries is spread across cores. The metrics are split into partitions of at most
+         * {@code partitionSize}, each collected by a task of its own, and their points are appended to the sender in
+         * the order of the registry. Gauges are still read from the reporting thread. The tags transformer is called
+         * from the threads of the pool, and should be thread safe.
+         *
+         * @param parallelism   the number of threads of the pool, which is shut down when the reporter is stopped
+         * @param partitionSize the maximum number of metrics collected by a task
+         * @return {@code this}
+         */
+        public Builder parallelCollection(int parallelism, int partitionSize) {
+            if (parallelism <= 0 || partitionSize <= 0) {
+                throw new IllegalArgumentException("parallelism and partitionSize should be gt 0");
+            }
+            this.collectionPool = null;
+            this.collectionParallelism = parallelism;
+            this.collectionPartitionSize = partitionSize;
+            return this;
+        }
+
+        /**
+         * Collect the metrics of a report on a pool of threads, as {@link #parallelCollection(int, int)}, but on a
+         * pool owned by the caller, which is left running when the reporter is stopped.
+         *
+         * @param pool          the pool to collect the metrics on
+         * @param partitionSize the maximum number of metrics collected by a task
+         * @return {@code this}
+         */
+        public Builder parallelCollection(ForkJoinPool pool, int partitionSize) {
+            if (pool == null || partitionSize <= 0) {
+                throw new IllegalArgumentException("pool should not be null and partitionSize should be gt 0");
+            }
+            this.collectionPool = pool;
+            this.collectionParallelism = 0;
+            this.collectionPartitionSize = partitionSize;
+            return this;
+        }
+
+        /**
+         * Close the sender when the reporter is stopped, releasing its connections, threads and spool. Only ask for
+         * this when the sender is not shared with other reporters or used on its own, by default it is left open.
+         *
+         * @param closeSenderOnStop true/false for closing the sender when the reporter is stopped
+         * @return {@code this}
+         */
+        public Builder closeSenderOnStop(boolean closeSenderOnStop) {
+            this.closeSenderOnStop = closeSenderOnStop;
+            return this;
+        }
+
         public InfluxDbReporter build(final InfluxDbSender influxDb) {
+            if (batching) {
+                for (InfluxDbBaseSender sender : baseSenders(influxDb, "Batching")) {
+                    sender.setMaxBatchPoints(maxBatchPoints);
+                    sender.setMaxBatchBytes(maxBatchBytes);
+                    sender.setMaxInFlightBatches(maxInFlightBatches);
+                }
+            }
+            if (async) {
+                for (InfluxDbBaseSender sender : baseSenders(influxDb, "Asynchronous writing")) {
+                    sender.setAsync(asyncQueueCapacity, asyncOverflowPolicy, asyncBlockTimeoutMillis,
+                        TimeUnit.MILLISECONDS);
+                }
+            }
+            if (retryPolicy != null) {
+                for (InfluxDbBaseSender sender : baseSenders(influxDb, "Retrying")) {
+                    sender.setRetryPolicy(retryPolicy);
+                }
+            }
+            if (circuitBreakerFailureThreshold > 0) {
+                // each destination fails on its own, so each has its own breaker
+                for (InfluxDbBaseSender sender : baseSenders(influxDb, "Circuit breaking")) {
+                    sender.setCircuitBreaker(new CircuitBreaker(
+                        circuitBreakerFailureThreshold, circuitBreakerOpenMillis, TimeUnit.MILLISECONDS));
+                }
+            }
+            if (spoolFile != null) {
+                // a spool file can not be shared by several destinations
+                InfluxDbBaseSender sender = baseSender(influxDb, "Spooling");
+                if (sender.getSpool() != null) {
+                    // e.g. another reporter built over the same sender, the file would be mapped twice
+                    throw new IllegalStateException("The sender already has a spool");
+                }
+                try {
+                    sender.setSpool(new RingFileSpool(spoolFile, spoolCapacityBytes), spoolReplayBatchesPerSecond);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to open the spool file " + spoolFile, e);
+                }
+            }
+            List<InfluxDbBaseSender> instrumented = Collections.emptyList();
+            if (selfMetricsPrefix != null) {
+                SenderMetrics metrics = new SenderMetrics(registry, selfMetricsPrefix);
+                if (influxDb instanceof FanOutInfluxDbSender) {
+                    ((FanOutInfluxDbSender) influxDb).setMetrics(metrics);
+                }
+                instrumented = instrumentedSenders(influxDb);
+                for (InfluxDbBaseSender sender : instrumented) {
+                    sender.setMetrics(metrics);
+                }
+            }
+            ForkJoinPool pool = collectionPool;
+            if (collectionParallelism > 0) {
+                pool = new ForkJoinPool(collectionParallelism, new CollectorThreadFactory(), null, false);
+            }
             return new InfluxDbReporter(
                 registry, influxDb, tags, rateUnit, durationUnit, filter, skipIdleMetrics,
-                groupGauges, includeTimerFields, includeMeterFields, measurementMappings, tagsTransformer
+                groupGauges, includeTimerFields, includeMeterFields, measurementMappings, tagsTransformer,
+                integerFields, selfMetricsPrefix, instrumented, pool, collectionParallelism > 0,
+                collectionPartitionSize, closeSenderOnStop
             );
         }
+
+        /**
+         * @return the senders of this library writing for the sender, none if it is not of this library
+         */
+        private static List<InfluxDbBaseSender> instrumentedSenders(final InfluxDbSender influxDb) {
+            if (influxDb instanceof FanOutInfluxDbSender) {
+                return ((FanOutInfluxDbSender) influxDb).destinations();
+            }
+            List<InfluxDbBaseSender> senders = new ArrayList<>();
+            List<InfluxDbSender> candidates = influxDb instanceof ShardingInfluxDbSender
+                ? ((ShardingInfluxDbSender) influxDb).getShards()
+                : Collections.singletonList(influxDb);
+            for (InfluxDbSender candidate : candidates) {
+                if (candidate instanceof InfluxDbBaseSender) {
+                    senders.add((InfluxDbBaseSender) candidate);
+                }
+            }
+            return senders;
+        }
+
+        /**
+         * @return the destinations of a {@link FanOutInfluxDbSender}, the shards of a
+         * {@link ShardingInfluxDbSender}, or the sender itself
+         */
+        private static List<InfluxDbBaseSender> baseSenders(final InfluxDbSender influxDb, final String feature) {
+            if (influxDb instanceof FanOutInfluxDbSender) {
+                return ((FanOutInfluxDbSender) influxDb).destinations();
+            }
+            if (influxDb instanceof ShardingInfluxDbSender) {
+                List<InfluxDbBaseSender> shards = new ArrayList<>();
+                for (InfluxDbSender shard : ((ShardingInfluxDbSender) influxDb).getShards()) {
+                    shards.add(baseSender(shard, feature));
+                }
+                return shards;
+            }
+            return Collections.singletonList(baseSender(influxDb, feature));
+        }
+
+        private static InfluxDbBaseSender baseSender(final InfluxDbSender influxDb, final String feature) {
+            if (!(influxDb instanceof InfluxDbBaseSender)) {
+                throw new IllegalArgumentException(
+                    feature + " is only supported by the senders of this library, not by " + influxDb.getClass());
+            }
+            return (InfluxDbBaseSender) influxDb;
+        }
+    }
+
+    private static final class CollectorThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("influxdb-collector-" + COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDbReporter.class);
     private final InfluxDbSender influxDb;
     private final boolean skipIdleMetrics;
-    private final Map<String, Long> previousValues;
     private final boolean groupGauges;
     private final Set<String> includeTimerFields;
     private final Set<String> includeMeterFields;
-    private final Map<String, Pattern> measurementMappings;
+    private final MeasurementMatcher measurementMappings;
     private final Transformer tagsTransformer;
+    private final MetricRegistry registry;
+    private final ConcurrentMap<String, MetricHandle> handles;
+    private final MetricRegistryListener handleEviction;
+    // null unless the reporter keeps metrics about itself
+    private final Timer cycleTimer;
+    private final Timer collectTimer;
+    private final Meter discarded;
+    private final Map<String, Gauge<?>> selfGauges;
+    // null unless the metrics are collected in parallel
+    private final ForkJoinPool collector;
+    private final boolean ownsCollector;
+    private final int partitionSize;
+    private final boolean closeSender;
 
     private InfluxDbReporter(
         final MetricRegistry registry,
@@ -199,26 +538,102 @@ public final class InfluxDbReporter extends ScheduledReporter {
         final Set<String> includeTimerFields,
         final Set<String> includeMeterFields,
         final Map<String, Pattern> measurementMappings,
-        final Transformer tagsTransformer
+        final Transformer tagsTransformer,
+        final boolean integerFields,
+        final String selfMetricsPrefix,
+        final List<InfluxDbBaseSender> instrumented,
+        final ForkJoinPool collector,
+        final boolean ownsCollector,
+        final int partitionSize,
+        final boolean closeSender
     ) {
         super(registry, "influxDb-reporter", filter, rateUnit, durationUnit);
         influxDb.setTags(tags);
+        if (integerFields) {
+            influxDb.setIntegerFields(true);
+        }
         this.influxDb = influxDb;
         this.skipIdleMetrics = skipIdleMetrics;
         this.groupGauges = groupGauges;
         this.includeTimerFields = includeTimerFields;
         this.includeMeterFields = includeMeterFields;
-        this.previousValues = new TreeMap<String, Long>();
-        this.measurementMappings =
-            measurementMappings == null ? Collections.<String, Pattern>emptyMap() : measurementMappings;
+        this.measurementMappings = new MeasurementMatcher(
+            measurementMappings == null ? Collections.<String, Pattern>emptyMap() : measurementMappings);
         this.tagsTransformer =
             tagsTransformer == null ? new NoopTransformer() : tagsTransformer;
+        this.registry = registry;
+        this.handles = new ConcurrentHashMap<String, MetricHandle>();
+        this.handleEviction = new HandleEviction();
+        registry.addListener(handleEviction);
+        this.collector = collector;
+        this.ownsCollector = ownsCollector;
+        this.partitionSize = partitionSize;
+        this.closeSender = closeSender;
+        this.selfGauges = new HashMap<String, Gauge<?>>();
+        if (selfMetricsPrefix == null) {
+            this.cycleTimer = null;
+            this.collectTimer = null;
+            this.discarded = null;
+        } else {
+            this.cycleTimer = registry.timer(MetricRegistry.name(selfMetricsPrefix, "cycle"));
+            this.collectTimer = registry.timer(MetricRegistry.name(selfMetricsPrefix, "collect"));
+            this.discarded = registry.meter(MetricRegistry.name(selfMetricsPrefix, "discarded"));
+            if (!instrumented.isEmpty()) {
+                registerSelfGauge(MetricRegistry.name(selfMetricsPrefix, "queued"), () -> {
+                    int queued = 0;
+                    for (InfluxDbBaseSender sender : instrumented) {
+                        queued += sender.getQueuedReports();
+                    }
+                    return queued;
+                });
+                registerSelfGauge(MetricRegistry.name(selfMetricsPrefix, "dropped"), () -> {
+                    long dropped = 0;
+                    for (InfluxDbBaseSender sender : instrumented) {
+                        dropped += sender.getDroppedReports();
+                    }
+                    return dropped;
+                });
+            }
+        }
+    }
+
+    private void registerSelfGauge(String name, Gauge<?> gauge) {
+        // another reporter may have registered it first, keep theirs
+        Gauge<?> registered = registry.gauge(name, () -> gauge);
+        if (registered == gauge) {
+            selfGauges.put(name, gauge);
+        }
     }
 
     public static Builder forRegistry(MetricRegistry registry) {
         return new Builder(registry);
     }
 
+    @Override
+    public void stop() {
+        try {
+            super.stop();
+        } finally {
+            registry.removeListener(handleEviction);
+            handles.clear();
+            if (ownsCollector) {
+                collector.shutdown();
+            }
+            for (Map.Entry<String, Gauge<?>> gauge : selfGauges.entrySet()) {
+                if (registry.getGauges().get(gauge.getKey()) == gauge.getValue()) {
+                    registry.remove(gauge.getKey());
+                }
+            }
+            if (closeSender) {
+                try {
+                    influxDb.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to close the InfluxDB sender with error '{}'.", e.getMessage());
+                }
+            }
+        }
+    }
+
     @Override
     public void report(
         final SortedMap<String, Gauge> gauges,
@@ -227,35 +642,128 @@ public final class InfluxDbReporter extends ScheduledReporter {
         final SortedMap<String, Meter> meters,
         final SortedMap<String, Timer> timers) {
         final long now = System.currentTimeMillis();
+        final long start = cycleTimer == null ? 0 : System.nanoTime();
 
         try {
             influxDb.flush();
 
             reportGauges(gauges, now);
 
-            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-                reportCounter(entry.getKey(), entry.getValue(), now);
-            }
+            if (collector == null) {
+                for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                    appendPoint(reportCounter(entry.getKey(), entry.getValue(), now));
+                }
 
-            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-                reportHistogram(entry.getKey(), entry.getValue(), now);
-            }
+                for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                    appendPoint(reportHistogram(entry.getKey(), entry.getValue(), now));
+                }
+
+                for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+                    appendPoint(reportMeter(entry.getKey(), entry.getValue(), now));
+                }
 
-            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-                reportMeter(entry.getKey(), entry.getValue(), now);
+                for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                    appendPoint(reportTimer(entry.getKey(), entry.getValue(), now));
+                }
+            } else {
+                List<Map.Entry<String, ? extends Metric>> metrics = new ArrayList<Map.Entry<String, ? extends Metric>>(
+                    counters.size() + histograms.size() + meters.size() + timers.size());
+                metrics.addAll(counters.entrySet());
+                metrics.addAll(histograms.entrySet());
+                metrics.addAll(meters.entrySet());
+                metrics.addAll(timers.entrySet());
+                for (InfluxDbPoint point : collector.invoke(new CollectTask(metrics, 0, metrics.size(), now))) {
+                    influxDb.appendPoints(point);
+                }
             }
 
-            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                reportTimer(entry.getKey(), entry.getValue(), now);
+            if (collectTimer != null) {
+                collectTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             }
 
             if (influxDb.hasSeriesData()) {
                 influxDb.writeData();
             }
         } catch (ConnectException e) {
+            markDiscarded();
             LOGGER.warn("Unable to connect to InfluxDB. Discarding data.");
         } catch (Exception e) {
+            markDiscarded();
             LOGGER.warn("Unable to report to InfluxDB with error '{}'. Discarding data.", e.getMessage());
+        } finally {
+            if (cycleTimer != null) {
+                cycleTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void appendPoint(InfluxDbPoint point) {
+        if (point != null) {
+            influxDb.appendPoints(point);
+        }
+    }
+
+    /**
+     * @return the point of the metric, or null if it is skipped
+     */
+    private InfluxDbPoint collect(String name, Metric metric, long now) {
+        // a timer is metered as well
+        if (metric instanceof Timer) {
+            return reportTimer(name, (Timer) metric, now);
+        } else if (metric instanceof Histogram) {
+            return reportHistogram(name, (Histogram) metric, now);
+        } else if (metric instanceof Meter) {
+            return reportMeter(name, (Meter) metric, now);
+        } else if (metric instanceof Counter) {
+            return reportCounter(name, (Counter) metric, now);
+        }
+        return null;
+    }
+
+    /**
+     * Collects a range of the metrics, splitting it in halves until it fits a partition. The points of the halves
+     * are joined in order, so that they are appended in the order of the registry.
+     */
+    private final class CollectTask extends RecursiveTask<List<InfluxDbPoint>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map.Entry<String, ? extends Metric>> metrics;
+        private final int from;
+        private final int to;
+        private final long now;
+
+        private CollectTask(List<Map.Entry<String, ? extends Metric>> metrics, int from, int to, long now) {
+            this.metrics = metrics;
+            this.from = from;
+            this.to = to;
+            this.now = now;
+        }
+
+        @Override
+        protected List<InfluxDbPoint> compute() {
+            if (to - from <= partitionSize) {
+                List<InfluxDbPoint> points = new ArrayList<InfluxDbPoint>(to - from);
+                for (int i = from; i < to; i++) {
+                    InfluxDbPoint point = collect(metrics.get(i).getKey(), metrics.get(i).getValue(), now);
+                    if (point != null) {
+                        points.add(point);
+                    }
+                }
+                return points;
+            }
+            int middle = (from + to) >>> 1;
+            CollectTask first = new CollectTask(metrics, from, middle, now);
+            first.fork();
+            List<InfluxDbPoint> second = new CollectTask(metrics, middle, to, now).compute();
+            List<InfluxDbPoint> points = first.join();
+            points.addAll(second);
+            return points;
+        }
+    }
+
+    private void markDiscarded() {
+        if (discarded != null) {
+            discarded.mark();
         }
     }
 
@@ -312,8 +820,7 @@ public final class InfluxDbReporter extends ScheduledReporter {
         if (!fields.isEmpty()) {
             influxDb.appendPoints(
                 new InfluxDbPoint(
-                    getMeasurementName(name),
-                    getTags(name),
+                    seriesKey(name),
                     now,
                     fields));
         }
@@ -337,9 +844,9 @@ public final class InfluxDbReporter extends ScheduledReporter {
         return finalValue;
     }
 
-    private void reportTimer(String name, Timer timer, long now) {
+    private InfluxDbPoint reportTimer(String name, Timer timer, long now) {
         if (canSkipMetric(name, timer)) {
-            return;
+            return null;
         }
         final Snapshot snapshot = timer.getSnapshot();
         Map<String, Object> fields = new HashMap<String, Object>();
@@ -363,17 +870,15 @@ public final class InfluxDbReporter extends ScheduledReporter {
             fields.keySet().retainAll(includeTimerFields);
         }
 
-        influxDb.appendPoints(
-            new InfluxDbPoint(
-                getMeasurementName(name),
-                getTags(name),
-                now,
-                fields));
+        return new InfluxDbPoint(
+            seriesKey(name),
+            now,
+            fields);
     }
 
-    private void reportHistogram(String name, Histogram histogram, long now) {
+    private InfluxDbPoint reportHistogram(String name, Histogram histogram, long now) {
         if (canSkipMetric(name, histogram)) {
-            return;
+            return null;
         }
         final Snapshot snapshot = histogram.getSnapshot();
         Map<String, Object> fields = new HashMap<String, Object>();
@@ -389,27 +894,23 @@ public final class InfluxDbReporter extends ScheduledReporter {
         fields.put("p99", snapshot.get99thPercentile());
         fields.put("p999", snapshot.get999thPercentile());
 
-        influxDb.appendPoints(
-            new InfluxDbPoint(
-                getMeasurementName(name),
-                getTags(name),
-                now,
-                fields));
+        return new InfluxDbPoint(
+            seriesKey(name),
+            now,
+            fields);
     }
 
-    private void reportCounter(String name, Counter counter, long now) {
+    private InfluxDbPoint reportCounter(String name, Counter counter, long now) {
         if (canSkipMetric(name, counter)) {
-            return;
+            return null;
         }
         Map<String, Object> fields = new HashMap<String, Object>();
         fields.put("count", counter.getCount());
 
-        influxDb.appendPoints(
-            new InfluxDbPoint(
-                getMeasurementName(name),
-                getTags(name),
-                now,
-                fields));
+        return new InfluxDbPoint(
+            seriesKey(name),
+            now,
+            fields);
     }
 
     private void reportGauge(String name, Gauge<?> gauge, long now) {
@@ -420,16 +921,15 @@ public final class InfluxDbReporter extends ScheduledReporter {
             fields.put("value", sanitizeGauge);
             influxDb.appendPoints(
                 new InfluxDbPoint(
-                    getMeasurementName(name),
-                    getTags(name),
+                    seriesKey(name),
                     now,
                     fields));
         }
     }
 
-    private void reportMeter(String name, Metered meter, long now) {
+    private InfluxDbPoint reportMeter(String name, Metered meter, long now) {
         if (canSkipMetric(name, meter)) {
-            return;
+            return null;
         }
         Map<String, Object> fields = new HashMap<String, Object>();
         fields.put("count", meter.getCount());
@@ -442,50 +942,132 @@ public final class InfluxDbReporter extends ScheduledReporter {
             fields.keySet().retainAll(includeMeterFields);
         }
 
-        influxDb.appendPoints(
-            new InfluxDbPoint(
-                getMeasurementName(name),
-                getTags(name),
-                now,
-                fields));
+        return new InfluxDbPoint(
+            seriesKey(name),
+            now,
+            fields);
     }
 
     private boolean canSkipMetric(String name, Counting counting) {
-        boolean isIdle = (calculateDelta(name, counting.getCount()) == 0);
-        if (skipIdleMetrics && !isIdle) {
-            previousValues.put(name, counting.getCount());
+        if (!skipIdleMetrics) {
+            return false;
         }
-        return skipIdleMetrics && isIdle;
+        MetricHandle handle = handle(name);
+        long count = counting.getCount();
+        boolean isIdle = (calculateDelta(name, handle, count) == 0);
+        if (!isIdle) {
+            handle.previousCount = count;
+            handle.counted = true;
+        }
+        return isIdle;
     }
 
-    private long calculateDelta(String name, long count) {
-        Long previous = previousValues.get(name);
-        if (previous == null) {
+    private long calculateDelta(String name, MetricHandle handle, long count) {
+        if (!handle.counted) {
             return -1;
         }
-        if (count < previous) {
+        if (count < handle.previousCount) {
             LOGGER.warn("Saw a non-monotonically increasing value for metric '{}'", name);
             return 0;
         }
-        return count - previous;
+        return count - handle.previousCount;
+    }
+
+    private InfluxDbSeriesKey seriesKey(String name) {
+        MetricHandle handle = handle(name);
+        Map<String, String> senderTags = influxDb.getTags();
+        if (handle.senderTags != senderTags) {
+            if (!Objects.equals(handle.senderTags, senderTags)) {
+                // the tags of the sender were changed since the key was built
+                handle.seriesKey = new InfluxDbSeriesKey(handle.seriesKey.getMeasurement(), getTags(name, senderTags));
+            }
+            handle.senderTags = senderTags;
+        }
+        return handle.seriesKey;
+    }
+
+    /**
+     * The measurement name and tags of a metric don't change between reports, so they are resolved once when the
+     * metric is first reported and kept, along with the count last reported, until it is removed from the registry.
+     * Only the tags of the sender may change, see {@link #seriesKey(String)}.
+     */
+    private MetricHandle handle(String name) {
+        MetricHandle handle = handles.get(name);
+        if (handle == null) {
+            Map<String, String> senderTags = influxDb.getTags();
+            handle = new MetricHandle(
+                new InfluxDbSeriesKey(getMeasurementName(name), getTags(name, senderTags)), senderTags);
+            MetricHandle existing = handles.putIfAbsent(name, handle);
+            if (existing != null) {
+                handle = existing;
+            }
+        }
+        return handle;
     }
 
-    private Map<String, String> getTags(String name) {
+    private Map<String, String> getTags(String name, Map<String, String> senderTags) {
         Map<String, String> tags = new HashMap<String, String>();
-        tags.putAll(influxDb.getTags());
+        tags.putAll(senderTags);
         tags.putAll(tagsTransformer.getTags(name));
         return tags;
     }
 
     private String getMeasurementName(final String name) {
-        for (Map.Entry<String, Pattern> entry : measurementMappings.entrySet()) {
-            final Pattern pattern = entry.getValue();
+        String measurement = measurementMappings.match(name);
+        return measurement == null ? name : measurement;
+    }
 
-            if (pattern.matcher(name).matches()) {
-                return entry.getKey();
-            }
+    /**
+     * The state kept about a metric between reports. The key and the count are only read and written by the thread
+     * collecting the metric, one at a time, handed over by the pool when collecting in parallel.
+     */
+    private static final class MetricHandle {
+        private InfluxDbSeriesKey seriesKey;
+        // the tags of the sender the key was built with
+        private Map<String, String> senderTags;
+        private long previousCount;
+        private boolean counted;
+
+        private MetricHandle(InfluxDbSeriesKey seriesKey, Map<String, String> senderTags) {
+            this.seriesKey = seriesKey;
+            this.senderTags = senderTags;
         }
-        return name;
     }
 
+    private void evict(String name) {
+        handles.remove(name);
+        tagsTransformer.evict(name);
+    }
+
+    private final class HandleEviction extends MetricRegistryListener.Base {
+        @Override
+        public void onGaugeRemoved(String name) {
+            evict(name);
+            // grouped gauges are reported under the name up to the last dot
+            int lastDotIndex = name.lastIndexOf('.');
+            if (lastDotIndex != -1) {
+                evict(name.substring(0, lastDotIndex));
+            }
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            evict(name);
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            evict(name);
+        }
+
+        @Override
+        public void onMeterRemoved(String name) {
+            evict(name);
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            evict(name);
+        }
+    }
 }
@@ -1,9 +1,11 @@
 package com.izettle.metrics.influxdb;
 
 import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Map;
 
-public interface InfluxDbSender {
+public interface InfluxDbSender extends Closeable {
     /**
      * Flushes buffer, if applicable.
      */
@@ -38,4 +40,27 @@ public interface InfluxDbSender {
     void setTags(final Map<String, String> tags);
 
     Map<String, String> getTags();
+
+    /**
+     * Write integral field values, like the counts of counters, meters, timers and histograms, as line protocol
+     * integers ({@code 1234i}) instead of floats ({@code 1234.0}).
+     * <p>
+     * InfluxDb rejects points whose field type differs from what is already stored in a shard, so turning this on for
+     * an existing database needs new measurements or a new retention policy.
+     * </p>
+     *
+     * @param integerFields true to write integral values as integers
+     */
+    default void setIntegerFields(final boolean integerFields) {
+    }
+
+    /**
+     * Releases the connections and threads held by the sender, called when the reporter is stopped if it was built
+     * with {@link InfluxDbReporter.Builder#closeSenderOnStop(boolean)}.
+     *
+     * @throws IOException exception while closing a connection
+     */
+    @Override
+    default void close() throws IOException {
+    }
 }
@@ -1,29 +1,60 @@
 package com.izettle.metrics.influxdb;
 
+import com.izettle.metrics.influxdb.utils.CachedAddressResolver;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An implementation of InfluxDbSender that uses TCP Connection.
+ * <p>
+ * The connection is made from a non-blocking channel, so that connecting and writing are both bounded by a timeout.
+ * The first connection is made from the writing thread. Once a connection fails or is lost, it is made again from a
+ * background thread, with a growing delay between attempts, and writes fail right away with a
+ * {@link ConnectException} until it succeeds. A collector that is down never blocks the reporter for longer than
+ * the timeouts.
+ * </p>
  *
  * Warning: This class uses non encrypted TCP connection to connect to the remote host.
  */
 public class InfluxDbTcpSender extends InfluxDbBaseSender {
 
-    private static final int NUM_OF_RETRIES = 2;
+    static final long INITIAL_RECONNECT_DELAY_MILLIS = 100;
+    static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDbTcpSender.class);
     private static final TimeUnit TCP_TIME_PRECISION = TimeUnit.NANOSECONDS;
-    private final String hostname;
-    private final int port;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final AtomicInteger RECONNECTOR_COUNT = new AtomicInteger();
+    private final CachedAddressResolver resolver;
+    private final String endpoint;
     private final int socketTimeout;
-    private Socket tcpSocket;
+    private final int connectTimeout;
+    private ByteBuffer writeBuffer;
+    private Selector writeSelector;
+    // guarded by this
+    private SocketChannel channel;
+    private boolean reconnecting;
+    private boolean closed;
+    private ScheduledExecutorService reconnector;
 
     /**
      * Creates an instance of [[InfluxDbTcpSender]]
      *  @param hostname          The hostname to connect
      * @param port              The port to connect
-     * @param socketTimeout     A socket timeout to use
+     * @param socketTimeout     A socket timeout to use, for connecting as well as writing
      * @param database          The database to write into
      */
     public InfluxDbTcpSender(
@@ -32,51 +63,205 @@ public class InfluxDbTcpSender extends InfluxDbBaseSender {
         final int socketTimeout,
         final String database,
         final String measurementPrefix) {
+        this(hostname, port, socketTimeout, database, measurementPrefix, socketTimeout);
+    }
+
+    /**
+     * Creates an instance of [[InfluxDbTcpSender]]
+     *  @param hostname          The hostname to connect
+     * @param port              The port to connect
+     * @param socketTimeout     The timeout in milliseconds for a write to make progress, 0 to wait forever
+     * @param database          The database to write into
+     * @param connectTimeout    The timeout in milliseconds for connecting, 0 to wait forever
+     */
+    public InfluxDbTcpSender(
+        final String hostname,
+        final int port,
+        final int socketTimeout,
+        final String database,
+        final String measurementPrefix,
+        final int connectTimeout) {
         super(database, TCP_TIME_PRECISION, measurementPrefix);
-        this.hostname = hostname;
-        this.port = port;
+        if (socketTimeout < 0 || connectTimeout < 0) {
+            throw new IllegalArgumentException("socketTimeout and connectTimeout should be gte 0");
+        }
+        this.resolver = new CachedAddressResolver(hostname, port);
+        this.endpoint = hostname + ":" + port;
         this.socketTimeout = socketTimeout;
+        this.connectTimeout = connectTimeout;
+    }
 
+    @Override
+    protected int writeData(byte[] line, int offset, int length) throws Exception {
+        SocketChannel current = channel();
+        try {
+            write(current, line, offset, length);
+        } catch (IOException e) {
+            disconnected(current);
+            throw e;
+        }
+        return 0;
     }
 
     @Override
-    protected int writeData(byte[] line) throws Exception {
-        retryConnect(false);
-
-        for (int i = 1; i <= NUM_OF_RETRIES; i++) {
-            try {
-                OutputStream outputStream = tcpSocket.getOutputStream();
-                outputStream.write(line);
-                outputStream.flush();
-
-                return 0;
-            } catch (IOException e) {
-                // In case of exception, force reconnect
-                retryConnect(true);
+    public void close() throws IOException {
+        super.close();
+        SocketChannel current;
+        synchronized (this) {
+            closed = true;
+            current = channel;
+            channel = null;
+            if (reconnector != null) {
+                reconnector.shutdownNow();
+            }
+        }
+        try {
+            if (writeSelector != null) {
+                writeSelector.close();
+            }
+        } finally {
+            if (current != null) {
+                current.close();
             }
         }
-
-        return 0;
     }
 
     /**
-     * Creates a new socket to the server
-     *
-     * @param force Whether to force reconnect
-     * @throws IOException On connection error (Server is not alive, not responding, etc')
+     * @return the connected channel, connecting from the calling thread the first time
+     * @throws ConnectException if the connection was lost and is being made again in the background
      */
-    private void retryConnect(boolean force) throws IOException {
-        if (force || tcpSocket == null) {
+    private SocketChannel channel() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The sender is closed");
+            }
+            if (channel != null) {
+                return channel;
+            }
+            if (reconnecting) {
+                throw new ConnectException("Not connected to " + endpoint + ", reconnecting");
+            }
+            reconnecting = true;
+        }
+        try {
+            return connected(connect());
+        } catch (IOException e) {
+            scheduleReconnect(INITIAL_RECONNECT_DELAY_MILLIS);
+            throw e;
+        }
+    }
+
+    private synchronized SocketChannel connected(SocketChannel connected) throws IOException {
+        if (closed) {
+            connected.close();
+            throw new IOException("The sender is closed");
+        }
+        channel = connected;
+        reconnecting = false;
+        return connected;
+    }
+
+    private void disconnected(SocketChannel lost) {
+        synchronized (this) {
+            if (channel != lost) {
+                return;
+            }
+            channel = null;
+            reconnecting = true;
+        }
+        closeQuietly(lost);
+        scheduleReconnect(0);
+    }
+
+    private synchronized void scheduleReconnect(final long delayMillis) {
+        if (closed) {
+            return;
+        }
+        if (reconnector == null) {
+            final String name = "influxdb-tcp-reconnector-" + RECONNECTOR_COUNT.incrementAndGet();
+            reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        reconnector.schedule(() -> reconnect(delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect(long delayMillis) {
+        try {
+            connected(connect());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to reconnect to InfluxDB with error '{}'.", e.getMessage());
+            scheduleReconnect(Math.min(Math.max(delayMillis << 1, INITIAL_RECONNECT_DELAY_MILLIS),
+                MAX_RECONNECT_DELAY_MILLIS));
+        }
+    }
 
-            if (tcpSocket != null) {
-                tcpSocket.close();
-                tcpSocket = null;
+    private SocketChannel connect() throws IOException {
+        InetSocketAddress address = resolver.resolve();
+        SocketChannel connecting = SocketChannel.open();
+        try {
+            connecting.configureBlocking(false);
+            if (!connecting.connect(address)) {
+                try (Selector selector = Selector.open()) {
+                    connecting.register(selector, SelectionKey.OP_CONNECT);
+                    if (selector.select(connectTimeout) == 0) {
+                        throw new SocketTimeoutException("Timed out connecting to " + address);
+                    }
+                    connecting.finishConnect();
+                }
             }
+            return connecting;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(connecting);
+            throw e;
+        }
+    }
 
-            tcpSocket = new Socket(hostname, port);
-            tcpSocket.setSoTimeout(socketTimeout);
+    /**
+     * Copies the lines into a direct buffer one chunk at a time, writing each chunk until the channel has taken all
+     * of it. A write that makes no progress for the socket timeout fails.
+     */
+    private void write(SocketChannel channel, byte[] line, int offset, int length) throws IOException {
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        }
+        final int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            int chunk = Math.min(writeBuffer.capacity(), end - position);
+            // The Buffer casts keep the class linking on Java 8, where ByteBuffer does not override clear and flip.
+            ((Buffer) writeBuffer).clear();
+            writeBuffer.put(line, position, chunk);
+            ((Buffer) writeBuffer).flip();
+            position += chunk;
+            while (writeBuffer.hasRemaining()) {
+                if (channel.write(writeBuffer) == 0) {
+                    awaitWritable(channel);
+                }
+            }
         }
+    }
 
+    private void awaitWritable(SocketChannel channel) throws IOException {
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+        }
+        if (channel.keyFor(writeSelector) == null) {
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+        if (writeSelector.select(socketTimeout) == 0) {
+            throw new SocketTimeoutException("Timed out writing to " + channel.getRemoteAddress());
+        }
+        writeSelector.selectedKeys().clear();
     }
 
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close connection to InfluxDB with error '{}'.", e.getMessage());
+        }
+    }
 }
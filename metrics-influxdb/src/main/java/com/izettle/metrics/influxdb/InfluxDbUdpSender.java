@@ -1,24 +1,59 @@
 package com.izettle.metrics.influxdb;
 
+import com.izettle.metrics.influxdb.utils.CachedAddressResolver;
+import com.izettle.metrics.influxdb.utils.LineBatches;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An implementation of InfluxDbSender that uses UDP Connection.
  * <p>
+ * The lines of a report are split into datagrams of at most {@code maxDatagramBytes}, so that they are not fragmented
+ * on the way. Lines that do not fit in a datagram on their own are still sent, and counted by
+ * {@link #getOversizedLines()}, unless they exceed what a datagram can hold at all, in which case they are dropped
+ * and counted by {@link #getDroppedLines()}.
+ * </p>
+ * <p>
+ * The host name is resolved once and refreshed in the background, see {@link CachedAddressResolver}, and the
+ * datagrams are written to a channel connected to the resolved address, reconnected when the address changes. On a
+ * connected channel an ICMP port unreachable received for an earlier datagram, e.g. while InfluxDb is restarting,
+ * fails a later write with a {@link java.net.PortUnreachableException}, where an unconnected socket silently lost the
+ * datagrams.
+ * </p>
+ * <p>
+ * The {@code socketTimeout} of the constructors has no effect on sending: a datagram is handed to the network without
+ * waiting for the receiver, and a socket timeout only applies to receiving.
+ * </p>
+ * <p>
  * Warning: This class uses non encrypted UDP connection to connect to the remote host.
  */
 public class InfluxDbUdpSender extends InfluxDbBaseSender {
 
+    /**
+     * Fits a 1500 byte Ethernet MTU, less 20 bytes of IPv4 header and 8 bytes of UDP header.
+     */
+    public static final int DEFAULT_MAX_DATAGRAM_BYTES = 1472;
+    /**
+     * The largest payload of a UDP datagram over IPv4.
+     */
+    static final int MAX_UDP_PAYLOAD_BYTES = 65507;
+
     private static final TimeUnit UDP_TIME_PRECISION = TimeUnit.NANOSECONDS;
 
-    private final String hostname;
-    private final int port;
+    private final CachedAddressResolver resolver;
     private final int socketTimeout;
-    private DatagramSocket udpSocket;
+    private final int maxDatagramBytes;
+    private final LineBatches datagrams = new LineBatches();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicLong oversizedLines = new AtomicLong();
+    private DatagramChannel channel;
+    private InetSocketAddress connectedTo;
+    private ByteBuffer datagram;
 
     public InfluxDbUdpSender(
         String hostname,
@@ -26,25 +61,149 @@ public class InfluxDbUdpSender extends InfluxDbBaseSender {
         int socketTimeout,
         String database,
         String measurementPrefix) {
+        this(hostname, port, socketTimeout, database, measurementPrefix, DEFAULT_MAX_DATAGRAM_BYTES);
+    }
+
+    public InfluxDbUdpSender(
+        String hostname,
+        int port,
+        int socketTimeout,
+        String database,
+        String measurementPrefix,
+        int maxDatagramBytes) {
+        this(hostname, port, socketTimeout, database, measurementPrefix, maxDatagramBytes,
+            CachedAddressResolver.DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param addressTtlMillis how long a resolved address of the host is used before it is resolved again
+     */
+    public InfluxDbUdpSender(
+        String hostname,
+        int port,
+        int socketTimeout,
+        String database,
+        String measurementPrefix,
+        int maxDatagramBytes,
+        long addressTtlMillis) {
         super(database, UDP_TIME_PRECISION, measurementPrefix);
-        this.hostname = hostname;
-        this.port = port;
+        if (maxDatagramBytes <= 0 || maxDatagramBytes > MAX_UDP_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("maxDatagramBytes should be between 1 and " + MAX_UDP_PAYLOAD_BYTES);
+        }
+        this.resolver = new CachedAddressResolver(hostname, port, addressTtlMillis);
         this.socketTimeout = socketTimeout;
+        this.maxDatagramBytes = maxDatagramBytes;
     }
 
+    /**
+     * Sends the lines in as many datagrams as needed. A datagram that fails to be sent does not stop the following
+     * ones, its lines are counted as dropped and the first failure is thrown once all datagrams have been attempted.
+     */
     @Override
-    protected int writeData(byte[] line) throws Exception {
-        createSocket();
+    protected int writeData(byte[] line, int offset, int length) throws Exception {
+        InetSocketAddress address = resolver.resolve();
 
-        udpSocket.send(new DatagramPacket(line, line.length, InetAddress.getByName(hostname), port));
+        datagrams.split(line, offset, length, Integer.MAX_VALUE, maxDatagramBytes);
+        oversizedLines.addAndGet(datagrams.oversized());
+        if (datagrams.count() == 0) {
+            return 0;
+        }
+        DatagramChannel channel = connect(address);
+
+        IOException failure = null;
+        for (int i = 0; i < datagrams.count(); i++) {
+            int datagramOffset = datagrams.offset(i);
+            int datagramLength = datagrams.length(i);
+            if (datagramLength > MAX_UDP_PAYLOAD_BYTES) {
+                // an oversized datagram always holds a single line
+                droppedLines.incrementAndGet();
+                continue;
+            }
+            ByteBuffer buffer = datagramBuffer(datagramLength);
+            buffer.put(line, datagramOffset, datagramLength);
+            ((Buffer) buffer).flip();
+            try {
+                channel.write(buffer);
+            } catch (IOException e) {
+                droppedLines.addAndGet(countLines(line, datagramOffset, datagramLength));
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
 
         return 0;
     }
 
-    private void createSocket() throws IOException {
-        if (udpSocket == null) {
-            udpSocket = new DatagramSocket();
-            udpSocket.setSoTimeout(socketTimeout);
+    /**
+     * @return the number of lines that could not be sent, since the sender was created.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * @return the number of lines that were larger than the maximum datagram size on their own, since the sender
+     * was created. They are sent anyway, but are likely to be fragmented.
+     */
+    public long getOversizedLines() {
+        return oversizedLines.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private DatagramChannel connect(InetSocketAddress address) throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = DatagramChannel.open();
+            // only applies to receiving through the socket, writes to the channel never wait for the receiver
+            channel.socket().setSoTimeout(socketTimeout);
+            connectedTo = null;
+        }
+        if (!address.equals(connectedTo)) {
+            if (channel.isConnected()) {
+                channel.disconnect();
+            }
+            channel.connect(address);
+            connectedTo = address;
+        }
+        return channel;
+    }
+
+    // A direct buffer is written by the channel as is, a heap buffer would be copied to a temporary direct one first.
+    // The Buffer casts keep the class linking on Java 8, where ByteBuffer does not override clear and flip.
+    private ByteBuffer datagramBuffer(int length) {
+        if (datagram == null || datagram.capacity() < length) {
+            datagram = ByteBuffer.allocateDirect(Math.max(maxDatagramBytes, length));
+        }
+        ((Buffer) datagram).clear();
+        return datagram;
+    }
+
+    private static int countLines(byte[] bytes, int offset, int length) {
+        int lines = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] == '\n') {
+                lines++;
+            }
+        }
+        // a last line without newline
+        if (length > 0 && bytes[offset + length - 1] != '\n') {
+            lines++;
         }
+        return lines;
     }
 }
@@ -0,0 +1,17 @@
+package com.izettle.metrics.influxdb;
+
+/**
+ * How the Kafka sender turns a report into records.
+ */
+public enum KafkaRecordMode {
+    /**
+     * One unkeyed record per batch of lines, see {@link InfluxDbBaseSender#setMaxBatchPoints(int)}. The fewest and
+     * largest records, spread over the partitions by the producer.
+     */
+    BATCH,
+    /**
+     * One record per point, keyed by its series, the measurement and tags. The points of a series always go to the
+     * same partition, in the order they were reported, while the series are spread over the partitions.
+     */
+    POINT
+}
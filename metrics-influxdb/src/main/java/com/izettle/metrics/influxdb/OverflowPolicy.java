@@ -0,0 +1,20 @@
+package com.izettle.metrics.influxdb;
+
+/**
+ * What an asynchronous sender does with a report when its queue of reports waiting to be written is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest queued report to make room, favouring fresh data.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new report, keeping the queued ones.
+     */
+    DROP_NEWEST,
+    /**
+     * Block the reporter until there is room, dropping the new report if there is still none after the block
+     * timeout.
+     */
+    BLOCK
+}
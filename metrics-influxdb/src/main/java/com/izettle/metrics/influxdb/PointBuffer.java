@@ -0,0 +1,151 @@
+package com.izettle.metrics.influxdb;
+
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import com.izettle.metrics.influxdb.utils.LineBatches;
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The points appended to a sender by any number of threads, until the writer takes them as a whole.
+ * <p>
+ * Points are pushed onto a lock-free stack, so that reporters and other threads sharing a sender append at full
+ * speed without waiting for each other. {@link #take()} swaps the whole stack out at once, and hands the points
+ * appended so far, by every thread, over as one segment written as a single batch. {@link #discard()} only drops the
+ * points of the calling thread, those of a cycle that failed halfway. Segments are recycled once written, along with
+ * the buffers they are encoded into.
+ * </p>
+ */
+final class PointBuffer {
+
+    /**
+     * The points of one cycle, and the buffers they are encoded and split into.
+     */
+    static final class Segment {
+        final Set<InfluxDbPoint> points = new LinkedHashSet<>();
+        final LineProtocolBuffer buffer = new LineProtocolBuffer();
+        final LineBatches batches = new LineBatches();
+        // encoding a segment only reads its own write object, so that cycles are encoded without a lock
+        private final InfluxDbWriteObject writeObject = new InfluxDbWriteObject(null, null);
+
+        private Segment() {
+            writeObject.setPoints(points);
+        }
+
+        /**
+         * @return the write object of the points of the segment, with the database, precision and tags of the sender
+         */
+        InfluxDbWriteObject writeObject(InfluxDbWriteObject sender) {
+            writeObject.setDatabase(sender.getDatabase());
+            writeObject.setPrecision(sender.getPrecision());
+            writeObject.setTags(sender.getTags());
+            return writeObject;
+        }
+    }
+
+    private static final class Node {
+        private final InfluxDbPoint point;
+        private final Thread producer;
+        private Node next;
+
+        private Node(InfluxDbPoint point, Thread producer) {
+            this.point = point;
+            this.producer = producer;
+        }
+    }
+
+    // the most recently appended point first
+    private final AtomicReference<Node> head = new AtomicReference<>();
+    private final Queue<Segment> recycled = new ConcurrentLinkedQueue<>();
+
+    void add(final InfluxDbPoint point) {
+        Node node = new Node(point, Thread.currentThread());
+        push(node, node);
+    }
+
+    /**
+     * @return whether no point is waiting to be taken, whichever thread appended it
+     */
+    boolean isEmpty() {
+        return head.get() == null;
+    }
+
+    /**
+     * Drops the points appended by the calling thread and not taken yet. The points of other threads are kept, and may
+     * be taken after points appended meanwhile.
+     */
+    void discard() {
+        Thread self = Thread.currentThread();
+        Node node = head.getAndSet(null);
+        Node first = null;
+        Node last = null;
+        while (node != null) {
+            Node next = node.next;
+            if (node.producer != self) {
+                node.next = null;
+                if (first == null) {
+                    first = node;
+                } else {
+                    last.next = node;
+                }
+                last = node;
+            }
+            node = next;
+        }
+        if (first != null) {
+            push(first, last);
+        }
+    }
+
+    /**
+     * Detaches all points appended so far, in the order they were appended.
+     *
+     * @return the segment, to be passed to {@link #recycle(Segment)} once written, or null if there is none
+     */
+    Segment take() {
+        Node node = head.getAndSet(null);
+        if (node == null) {
+            return null;
+        }
+        Node previous = null;
+        while (node != null) {
+            Node next = node.next;
+            node.next = previous;
+            previous = node;
+            node = next;
+        }
+        Segment segment = recycled.poll();
+        if (segment == null) {
+            segment = new Segment();
+        }
+        for (node = previous; node != null; node = node.next) {
+            segment.points.add(node.point);
+        }
+        return segment;
+    }
+
+    void recycle(Segment segment) {
+        segment.points.clear();
+        recycled.offer(segment);
+    }
+
+    /**
+     * Drops all points not taken yet, and the recycled segments.
+     */
+    void clear() {
+        head.set(null);
+        recycled.clear();
+    }
+
+    private void push(Node first, Node last) {
+        Node current;
+        do {
+            current = head.get();
+            last.next = current;
+        } while (!head.compareAndSet(current, first));
+    }
+}
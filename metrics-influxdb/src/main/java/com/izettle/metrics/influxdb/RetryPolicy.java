@@ -0,0 +1,89 @@
+package com.izettle.metrics.influxdb;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the senders of this library retry a failed write.
+ * <p>
+ * A write is attempted up to {@code maxAttempts} times. Before each retry the sender waits for a random time between
+ * zero and a ceiling, which starts at the initial backoff and doubles with each retry up to the maximum backoff. The
+ * random "full jitter" keeps a fleet of reporters from retrying in lockstep once InfluxDb is back. Retries stop
+ * early once the budget, counted from the start of writing a report, would be exceeded.
+ * </p>
+ * <p>
+ * Only failures that a retry may fix are retried, see {@link #isRetryable(Exception)}.
+ * </p>
+ */
+public final class RetryPolicy {
+
+    /**
+     * A single attempt, the behaviour when no policy is set.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, TimeUnit.MILLISECONDS);
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long budgetNanos;
+
+    /**
+     * @param maxAttempts    the maximum number of attempts per write, including the first
+     * @param initialBackoff the ceiling of the wait before the first retry
+     * @param maxBackoff     the largest ceiling of the wait before a retry
+     * @param budget         the maximum time spent writing a report, including retries
+     * @param unit           the unit of the backoffs and the budget
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, long budget, TimeUnit unit) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts should be gt 0");
+        }
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("initialBackoff should be gte 0 and lte maxBackoff");
+        }
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget should be gte 0");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+        this.budgetNanos = unit.toNanos(budget);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBudget(TimeUnit unit) {
+        return unit.convert(budgetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param attempt the attempt that failed, starting from 1
+     * @return a random wait before the next attempt, in nanoseconds
+     */
+    long backoffNanos(int attempt) {
+        long ceiling = initialBackoffNanos;
+        for (int i = 1; i < attempt && ceiling < maxBackoffNanos; i++) {
+            ceiling <<= 1;
+        }
+        ceiling = Math.min(ceiling, maxBackoffNanos);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Failures to reach InfluxDb, and responses telling to come back later, are worth retrying. Rejected points and
+     * errors in the reporter are not, they would fail the same way again.
+     *
+     * @param failure the failure of an attempt
+     * @return true for an {@link IOException}, unless it is a response with a 4XX status other than 408 or 429
+     */
+    public static boolean isRetryable(Exception failure) {
+        if (failure instanceof InfluxDbHttpException) {
+            int responseCode = ((InfluxDbHttpException) failure).getResponseCode();
+            return responseCode / 100 != 4 || responseCode == 408 || responseCode == 429;
+        }
+        return failure instanceof IOException;
+    }
+}
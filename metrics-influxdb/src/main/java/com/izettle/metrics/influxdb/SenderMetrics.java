@@ -0,0 +1,74 @@
+package com.izettle.metrics.influxdb;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics the senders of this library keep about themselves, registered by the reporter, see
+ * {@link InfluxDbReporter.Builder#selfMetrics(String)}. The senders of a fan out or sharding sender share them.
+ */
+final class SenderMetrics {
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Timer serialize;
+    private final Timer send;
+    private final Timer requests;
+    private final Histogram points;
+    private final Histogram bytes;
+    private final Meter discarded;
+
+    SenderMetrics(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.serialize = registry.timer(name(prefix, "serialize"));
+        this.send = registry.timer(name(prefix, "send"));
+        this.requests = registry.timer(name(prefix, "requests"));
+        this.points = registry.histogram(name(prefix, "points"));
+        this.bytes = registry.histogram(name(prefix, "bytes"));
+        // the same meter the reporter marks for the reports failing on its own thread
+        this.discarded = registry.meter(name(prefix, "discarded"));
+    }
+
+    /**
+     * Records encoding a report, from {@code startNanos} until now.
+     */
+    void serialized(long startNanos, int pointCount, int byteCount) {
+        serialize.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        points.update(pointCount);
+        bytes.update(byteCount);
+    }
+
+    /**
+     * Records writing all batches of a report, retries included, from {@code startNanos} until now.
+     */
+    void sent(long startNanos) {
+        send.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a single attempt to write a batch, from {@code startNanos} until now.
+     */
+    void requested(long startNanos) {
+        requests.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a failed attempt by the class of the failure, e.g. {@code failures.ConnectException}.
+     */
+    void failed(Exception failure) {
+        registry.meter(name(prefix, "failures", failure.getClass().getSimpleName())).mark();
+    }
+
+    /**
+     * Counts a report that failed to be written from the thread of an asynchronous sender, and was discarded.
+     */
+    void discarded() {
+        discarded.mark();
+    }
+}
@@ -0,0 +1,227 @@
+package com.izettle.metrics.influxdb;
+
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.utils.ConsistentHashRing;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An implementation of InfluxDbSender that spreads the series of a report over several InfluxDb, from a single
+ * reporter.
+ * <p>
+ * Each point is routed to a shard by a consistent hash of its series, the measurement and tags, see
+ * {@link ConsistentHashRing}, so that a series is always written to the same shard, by every reporter, and adding a
+ * shard only moves the series it takes over. Each shard encodes, batches and writes its own points, the shards are
+ * written concurrently.
+ * </p>
+ * <p>
+ * Closing this sender closes the shards.
+ * </p>
+ */
+public class ShardingInfluxDbSender implements InfluxDbSender {
+
+    /**
+     * Spreads the series within a few percent of evenly for a handful of shards.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    private static final AtomicInteger SHARD_WRITER_COUNT = new AtomicInteger();
+
+    private final List<InfluxDbSender> shards;
+    private final ConsistentHashRing ring;
+    private ExecutorService shardWriter;
+
+    /**
+     * @param shards the senders to spread the series over, by a name that is unique and stable across processes,
+     *               e.g. host:port, in iteration order
+     */
+    public ShardingInfluxDbSender(final Map<String, ? extends InfluxDbSender> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param shards       the senders to spread the series over, by a name that is unique and stable across
+     *                     processes, e.g. host:port, in iteration order
+     * @param virtualNodes the number of positions of each shard on the hash ring
+     */
+    public ShardingInfluxDbSender(final Map<String, ? extends InfluxDbSender> shards, final int virtualNodes) {
+        this.ring = new ConsistentHashRing(new ArrayList<>(shards.keySet()), virtualNodes);
+        this.shards = Collections.unmodifiableList(new ArrayList<InfluxDbSender>(shards.values()));
+    }
+
+    @Override
+    public void flush() {
+        for (InfluxDbSender shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public boolean hasSeriesData() {
+        for (InfluxDbSender shard : shards) {
+            if (shard.hasSeriesData()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void appendPoints(InfluxDbPoint point) {
+        if (point != null) {
+            shards.get(ring.node(seriesHash(point))).appendPoints(point);
+        }
+    }
+
+    /**
+     * Writes the shards holding points, concurrently when there are several. A failed shard does not stop the others
+     * from being written, the first failure is thrown once all shards have been written, with the others added as
+     * suppressed.
+     *
+     * @return the response code of the last shard written
+     */
+    @Override
+    public int writeData() throws Exception {
+        List<Callable<Integer>> pending = new ArrayList<>(shards.size());
+        for (InfluxDbSender shard : shards) {
+            if (shard.hasSeriesData()) {
+                pending.add(writer(shard));
+            }
+        }
+        if (pending.size() <= 1) {
+            return pending.isEmpty() ? 0 : pending.get(0).call();
+        }
+        ExecutorService executor = shardWriter();
+        List<Future<Integer>> results = new ArrayList<>(pending.size());
+        for (Callable<Integer> writer : pending) {
+            results.add(executor.submit(writer));
+        }
+
+        // Wait for every shard even when interrupted, the next cycle must not flush points while they are written.
+        boolean interrupted = false;
+        Exception failure = null;
+        int result = 0;
+        for (Future<Integer> future : results) {
+            while (true) {
+                try {
+                    result = future.get();
+                    break;
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * The senders of this library keep the points of each appending thread apart, so the points of this thread are
+     * detached here, before the shard is written from another one.
+     */
+    private static Callable<Integer> writer(InfluxDbSender shard) {
+        if (shard instanceof InfluxDbBaseSender) {
+            InfluxDbBaseSender sender = (InfluxDbBaseSender) shard;
+            PointBuffer.Segment cycle = sender.takeCycle();
+            return () -> sender.writeCycle(cycle);
+        }
+        return shard::writeData;
+    }
+
+    @Override
+    public void setTags(Map<String, String> tags) {
+        for (InfluxDbSender shard : shards) {
+            shard.setTags(tags);
+        }
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return shards.get(0).getTags();
+    }
+
+    @Override
+    public void setIntegerFields(boolean integerFields) {
+        for (InfluxDbSender shard : shards) {
+            shard.setIntegerFields(integerFields);
+        }
+    }
+
+    public List<InfluxDbSender> getShards() {
+        return shards;
+    }
+
+    /**
+     * Closes every shard, even when closing one of them fails.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (shardWriter != null) {
+                shardWriter.shutdown();
+            }
+        }
+        IOException failure = null;
+        for (InfluxDbSender shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized ExecutorService shardWriter() {
+        if (shardWriter == null) {
+            final int id = SHARD_WRITER_COUNT.incrementAndGet();
+            final AtomicInteger threads = new AtomicInteger();
+            shardWriter = Executors.newFixedThreadPool(shards.size(), runnable -> {
+                Thread thread = new Thread(runnable, "influxdb-shard-writer-" + id + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return shardWriter;
+    }
+
+    /**
+     * A hash of the measurement and tags, independent of the order of the tags and stable across processes.
+     */
+    static long seriesHash(InfluxDbPoint point) {
+        long hash = ConsistentHashRing.mix(Objects.hashCode(point.getMeasurement()));
+        for (Map.Entry<String, String> tag : point.getTags().entrySet()) {
+            hash += ConsistentHashRing.mix(
+                (long) Objects.hashCode(tag.getKey()) << 32 | Objects.hashCode(tag.getValue()) & 0xffffffffL);
+        }
+        return ConsistentHashRing.mix(hash);
+    }
+}
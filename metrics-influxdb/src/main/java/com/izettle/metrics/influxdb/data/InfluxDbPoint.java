@@ -11,6 +11,7 @@ public class InfluxDbPoint {
     private Map<String, String> tags = Collections.emptyMap();
     private Long time;
     private Map<String, Object> fields = Collections.emptyMap();
+    private InfluxDbSeriesKey seriesKey;
 
     public InfluxDbPoint(
         final String measurement,
@@ -39,12 +40,21 @@ public class InfluxDbPoint {
         }
     }
 
+    public InfluxDbPoint(
+        final InfluxDbSeriesKey seriesKey,
+        final Long time,
+        final Map<String, Object> fields) {
+        this(seriesKey.getMeasurement(), seriesKey.getTags(), time, fields);
+        this.seriesKey = seriesKey;
+    }
+
     public String getMeasurement() {
         return measurement;
     }
 
     public void setMeasurement(String measurement) {
         this.measurement = measurement;
+        this.seriesKey = null;
     }
 
     public Map<String, String> getTags() {
@@ -54,9 +64,17 @@ public class InfluxDbPoint {
     public void setTags(Map<String, String> tags) {
         if (tags != null) {
             this.tags = Collections.unmodifiableMap(tags);
+            this.seriesKey = null;
         }
     }
 
+    /**
+     * @return the shared series key of the point, or null if it was created from a measurement and tags of its own.
+     */
+    public InfluxDbSeriesKey getSeriesKey() {
+        return seriesKey;
+    }
+
     public Long getTime() {
         return time;
     }
@@ -0,0 +1,63 @@
+package com.izettle.metrics.influxdb.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The measurement and tags identifying a series, shared by all points reported for the same metric.
+ * <p>
+ * The tags are sorted, as recommended by InfluxDb. A serializer can cache the encoded
+ * {@code measurement,tag=value,...} prefix on the key with {@link #setEncoded(Object, byte[])}, so that it is escaped
+ * and encoded once per metric instead of once per report.
+ * </p>
+ */
+public class InfluxDbSeriesKey {
+    private final String measurement;
+    private final Map<String, String> tags;
+    private volatile Encoded encoded;
+
+    public InfluxDbSeriesKey(final String measurement, final Map<String, String> tags) {
+        this.measurement = measurement;
+        this.tags = tags == null
+            ? Collections.<String, String>emptyMap()
+            : Collections.unmodifiableMap(new TreeMap<String, String>(tags));
+    }
+
+    public String getMeasurement() {
+        return measurement;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @param encoder the serializer the bytes were encoded by
+     * @return the bytes cached by the encoder, or null if it has not cached any
+     */
+    public byte[] getEncoded(final Object encoder) {
+        final Encoded current = encoded;
+        return current != null && current.encoder == encoder ? current.bytes : null;
+    }
+
+    /**
+     * Caches the encoded series key, replacing bytes cached by any other encoder.
+     *
+     * @param encoder the serializer the bytes were encoded by
+     * @param bytes the encoded series key, not to be modified once cached
+     */
+    public void setEncoded(final Object encoder, final byte[] bytes) {
+        this.encoded = new Encoded(encoder, bytes);
+    }
+
+    private static final class Encoded {
+        private final Object encoder;
+        private final byte[] bytes;
+
+        private Encoded(final Object encoder, final byte[] bytes) {
+            this.encoder = encoder;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.izettle.metrics.influxdb.tags;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the tags of another transformer by metric name, so that they are computed once per metric.
+ * <p>
+ * The tags are returned as a shared, unmodifiable map. A metric removed from the registry is evicted, and once the
+ * cache holds {@code maxSize} names it is cleared, so that short-lived metrics can not grow it without bound.
+ * </p>
+ */
+public class CachingTransformer implements Transformer {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final ConcurrentMap<String, Map<String, String>> cache = new ConcurrentHashMap<>();
+    private final Transformer transformer;
+    private final int maxSize;
+
+    public CachingTransformer(Transformer transformer) {
+        this(transformer, DEFAULT_MAX_SIZE);
+    }
+
+    public CachingTransformer(Transformer transformer, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be gt 0");
+        }
+        this.transformer = transformer;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public Map<String, String> getTags(String metricName) {
+        Map<String, String> tags = cache.get(metricName);
+        if (tags == null) {
+            tags = Collections.unmodifiableMap(new HashMap<String, String>(transformer.getTags(metricName)));
+            if (cache.size() >= maxSize) {
+                cache.clear();
+            }
+            cache.put(metricName, tags);
+        }
+        return tags;
+    }
+
+    @Override
+    public void evict(String metricName) {
+        cache.remove(metricName);
+        transformer.evict(metricName);
+    }
+
+    public Transformer getTransformer() {
+        return transformer;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
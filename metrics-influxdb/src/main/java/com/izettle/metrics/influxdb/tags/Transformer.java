@@ -3,5 +3,16 @@ package com.izettle.metrics.influxdb.tags;
 import java.util.Map;
 
 public interface Transformer {
+    /**
+     * @return the tags of the metric, which depend on its name only. The map may be shared, and must not be
+     * modified by the caller.
+     */
     Map<String, String> getTags(String metricName);
+
+    /**
+     * Called once the metric is removed from the registry, for transformers keeping state by metric name, see
+     * {@link CachingTransformer}.
+     */
+    default void evict(String metricName) {
+    }
 }
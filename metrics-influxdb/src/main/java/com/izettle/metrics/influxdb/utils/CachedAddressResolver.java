@@ -0,0 +1,92 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves a host name once and keeps the address, so that reporting does not wait for DNS on every write.
+ * <p>
+ * The first {@link #resolve()} looks the host up in the calling thread, so that a host that can not be resolved
+ * fails the write. Once the address is older than the time to live, {@link #resolve()} keeps returning it while it
+ * is looked up again in the background. A failed lookup keeps the previous address until the next attempt.
+ * </p>
+ */
+public class CachedAddressResolver {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedAddressResolver.class);
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "influxdb-address-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String hostname;
+    private final int port;
+    private final long ttlNanos;
+    private final Executor refresher;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile InetSocketAddress address;
+    private volatile long resolvedAt;
+
+    public CachedAddressResolver(String hostname, int port) {
+        this(hostname, port, DEFAULT_TTL_MILLIS);
+    }
+
+    public CachedAddressResolver(String hostname, int port, long ttlMillis) {
+        this(hostname, port, ttlMillis, REFRESHER);
+    }
+
+    CachedAddressResolver(String hostname, int port, long ttlMillis, Executor refresher) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis should be gte 0");
+        }
+        this.hostname = hostname;
+        this.port = port;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refresher = refresher;
+    }
+
+    /**
+     * @return the address of the host, possibly older than the time to live while it is being refreshed
+     * @throws UnknownHostException if the host has never been resolved and can not be resolved now
+     */
+    public InetSocketAddress resolve() throws UnknownHostException {
+        InetSocketAddress current = address;
+        if (current == null) {
+            return lookup();
+        }
+        if (System.nanoTime() - resolvedAt >= ttlNanos && refreshing.compareAndSet(false, true)) {
+            refresher.execute(this::refresh);
+        }
+        return current;
+    }
+
+    private void refresh() {
+        try {
+            lookup();
+        } catch (UnknownHostException e) {
+            LOGGER.warn("Unable to refresh the address of {}, keeping {}", hostname, address, e);
+            // retry once the time to live has passed again
+            resolvedAt = System.nanoTime();
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private InetSocketAddress lookup() throws UnknownHostException {
+        InetSocketAddress resolved = new InetSocketAddress(InetAddress.getByName(hostname), port);
+        resolvedAt = System.nanoTime();
+        address = resolved;
+        return resolved;
+    }
+}
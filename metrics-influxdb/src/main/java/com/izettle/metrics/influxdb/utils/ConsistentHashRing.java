@@ -0,0 +1,76 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps hashes to nodes, such that adding or removing a node only moves the hashes of that node.
+ * <p>
+ * Each node is placed on a ring of 64 bit positions at a number of virtual positions, derived from its name, and a
+ * hash belongs to the node at the next position on the ring. The more virtual positions, the more evenly the hashes
+ * are spread. The positions only depend on the names, so that every process maps a hash to the same node.
+ * </p>
+ */
+public class ConsistentHashRing {
+
+    private final long[] positions;
+    private final int[] nodes;
+
+    /**
+     * @param names        the names of the nodes, unique and stable across processes, e.g. host:port
+     * @param virtualNodes the number of positions of each node on the ring
+     */
+    public ConsistentHashRing(List<String> names, int virtualNodes) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("names should not be empty");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes should be gt 0");
+        }
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int node = 0; node < names.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                String virtualNode = names.get(node) + "#" + i;
+                ring.putIfAbsent(mix((long) virtualNode.hashCode() << 32 | i), node);
+            }
+        }
+        this.positions = new long[ring.size()];
+        this.nodes = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> position : ring.entrySet()) {
+            positions[i] = position.getKey();
+            nodes[i] = position.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * @param hash a well mixed hash, see {@link #mix(long)}
+     * @return the index of the node the hash belongs to, in the list of names
+     */
+    public int node(long hash) {
+        int index = Arrays.binarySearch(positions, hash);
+        if (index < 0) {
+            index = -index - 1;
+            if (index == positions.length) {
+                index = 0;
+            }
+        }
+        return nodes[index];
+    }
+
+    /**
+     * Spreads the bits of a hash, such as a {@link String#hashCode()}, over all 64 bits, with the finalizer of
+     * MurmurHash3.
+     */
+    public static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
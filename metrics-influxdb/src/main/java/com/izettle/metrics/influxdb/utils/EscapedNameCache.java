@@ -0,0 +1,61 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache from raw names to their escaped UTF-8 bytes.
+ * <p>
+ * Measurement names, tag keys and values and field keys are mostly the same from one report to the next, caching
+ * their encoded form means they are escaped and encoded once instead of on every report. Once the cache holds
+ * {@code maxSize} names it is cleared, so a stream of unique names, like tag values holding ids, can not grow it
+ * without bound.
+ * </p>
+ */
+public class EscapedNameCache {
+
+    /**
+     * How a raw name is escaped before it is encoded.
+     */
+    public interface Escaper {
+        String escape(String name);
+    }
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final ConcurrentMap<String, byte[]> cache = new ConcurrentHashMap<>();
+    private final Escaper escaper;
+    private final int maxSize;
+
+    public EscapedNameCache(Escaper escaper) {
+        this(escaper, DEFAULT_MAX_SIZE);
+    }
+
+    public EscapedNameCache(Escaper escaper, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be gt 0");
+        }
+        this.escaper = escaper;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the escaped name encoded as UTF-8, the returned array is shared and must not be modified.
+     */
+    public byte[] get(String name) {
+        byte[] escaped = cache.get(name);
+        if (escaped == null) {
+            escaped = escaper.escape(name).getBytes(StandardCharsets.UTF_8);
+            if (cache.size() >= maxSize) {
+                cache.clear();
+            }
+            cache.put(name, escaped);
+        }
+        return escaped;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
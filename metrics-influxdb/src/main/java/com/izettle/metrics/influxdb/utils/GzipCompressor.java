@@ -0,0 +1,78 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses encoded line protocol into gzip format, as accepted by InfluxDb with {@code Content-Encoding: gzip}.
+ * <p>
+ * Both the deflater and the output buffer are reused between calls, so once the buffer has grown to fit the
+ * compressed size of a report, compressing does not allocate. Instances are not thread safe.
+ * </p>
+ */
+public class GzipCompressor {
+
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, // magic
+        Deflater.DEFLATED, // compression method
+        0, // flags
+        0, 0, 0, 0, // modification time, none
+        0, // extra flags
+        (byte) 0xff // operating system, unknown
+    };
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final LineProtocolBuffer compressed = new LineProtocolBuffer();
+
+    /**
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public GzipCompressor(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level should be between 0 and 9");
+        }
+        this.deflater = new Deflater(level, true);
+    }
+
+    /**
+     * Compresses the bytes into a gzip member.
+     *
+     * @return a buffer holding the compressed bytes, only valid until the next call
+     */
+    public LineProtocolBuffer compress(byte[] src, int offset, int length) {
+        compressed.reset();
+        compressed.append(HEADER);
+
+        deflater.reset();
+        deflater.setInput(src, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            // leave room for the worst case, which is a little larger than the input
+            compressed.ensureCapacity(Math.max(512, (length >> 3) + 64));
+            byte[] out = compressed.array();
+            int written = deflater.deflate(out, compressed.size(), out.length - compressed.size());
+            compressed.skip(written);
+        }
+
+        crc.reset();
+        crc.update(src, offset, length);
+        appendIntLittleEndian((int) crc.getValue());
+        appendIntLittleEndian(length);
+        return compressed;
+    }
+
+    /**
+     * Releases the native resources of the deflater, the compressor can not be used afterwards.
+     */
+    public void end() {
+        deflater.end();
+    }
+
+    private void appendIntLittleEndian(int value) {
+        compressed.append((byte) value)
+            .append((byte) (value >>> 8))
+            .append((byte) (value >>> 16))
+            .append((byte) (value >>> 24));
+    }
+}
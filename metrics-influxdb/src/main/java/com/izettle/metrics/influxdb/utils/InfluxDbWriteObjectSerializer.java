@@ -1,26 +1,41 @@
 package com.izettle.metrics.influxdb.utils;
 
 import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbSeriesKey;
 import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.text.NumberFormat;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class InfluxDbWriteObjectSerializer {
 
-    private static final Pattern COMMA = Pattern.compile(",");
-    private static final Pattern SPACE = Pattern.compile(" ");
-    private static final Pattern EQUAL = Pattern.compile("=");
-    private static final Pattern DOUBLE_QUOTE = Pattern.compile("\"");
-    private static final Pattern FIELD = Pattern.compile("\\.");
-    private final String measurementPrefix;
+    private final EscapedNameCache measurements;
+    private final EscapedNameCache keys;
+    private final Map<String, FieldNames> fieldNames = new ConcurrentHashMap<>();
+    private boolean integerFields;
 
     public InfluxDbWriteObjectSerializer(String measurementPrefix) {
-        this.measurementPrefix = measurementPrefix;
+        this.measurements = new EscapedNameCache(
+            measurement -> LineProtocolEscaper.escapeMeasurement(measurementPrefix + measurement));
+        this.keys = new EscapedNameCache(LineProtocolEscaper::escapeKey);
+    }
+
+    /**
+     * Write integral field values as line protocol integers, e.g. {@code 1234i}, instead of as floats.
+     *
+     * @param integerFields true to write integral values as integers
+     */
+    public void setIntegerFields(boolean integerFields) {
+        this.integerFields = integerFields;
     }
 
     // measurement[,tag=value,tag2=value2...] field=value[,field2=value2...] [unixnano]
@@ -31,12 +46,19 @@ public class InfluxDbWriteObjectSerializer {
      * @return the String with newLines.
      */
     public String getLineProtocolString(InfluxDbWriteObject influxDbWriteObject) {
-        StringBuilder stringBuilder = new StringBuilder();
+        LineProtocolBuffer buffer = new LineProtocolBuffer();
+        writeLineProtocol(influxDbWriteObject, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Encode the lineprotocol for all Points as UTF-8 into the buffer, one line per point.
+     */
+    public void writeLineProtocol(InfluxDbWriteObject influxDbWriteObject, LineProtocolBuffer buffer) {
         for (InfluxDbPoint point : influxDbWriteObject.getPoints()) {
-            pointLineProtocol(point, influxDbWriteObject.getPrecision(), stringBuilder);
-            stringBuilder.append("\n");
+            pointLineProtocol(point, influxDbWriteObject.getPrecision(), buffer);
+            buffer.append('\n');
         }
-        return stringBuilder.toString();
     }
 
     /**
@@ -46,31 +68,35 @@ public class InfluxDbWriteObjectSerializer {
      * @return the String with newLines.
      */
     public String getGroupedLineProtocolString(InfluxDbWriteObject influxDbWriteObject, String realMeasurement) {
-        // First develop a set of timestamps.
-        HashSet<Long> times = new HashSet<>();
+        LineProtocolBuffer buffer = new LineProtocolBuffer();
+        writeGroupedLineProtocol(influxDbWriteObject, realMeasurement, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Encode the grouped line protocol for all Points as UTF-8 into the buffer, see
+     * {@link #getGroupedLineProtocolString(InfluxDbWriteObject, String)}.
+     */
+    public void writeGroupedLineProtocol(InfluxDbWriteObject influxDbWriteObject, String realMeasurement,
+            LineProtocolBuffer buffer) {
+        // Write lines, one per timestamp and tag set, instead of one per point.
+        Map<GroupKey, Map<String, Object>> groups = new LinkedHashMap<>();
         for (InfluxDbPoint point : influxDbWriteObject.getPoints()) {
-            times.add(point.getTime());
-        }
-
-        // Write lines, one per timestamp, instead of one per point.  Collect tags from one point
-        // as all are presumed the same.
-        StringBuilder stringBuilder = new StringBuilder();
-        for (Long time : times) {
-            Map<String, Object> fields = new HashMap<>();
-            Map<String, String> tags = null;
-            
-            for (InfluxDbPoint point : influxDbWriteObject.getPoints()) {
-                if (point.getTime().equals(time)) {
-                    mergeFields(fields, point.getFields(), point.getMeasurement());
-                    tags = point.getTags();
-                }
+            GroupKey key = new GroupKey(point.getTime(), point.getTags());
+            Map<String, Object> fields = groups.get(key);
+            if (fields == null) {
+                fields = new HashMap<>();
+                groups.put(key, fields);
             }
-            lineProtocol(tags, fields, realMeasurement, time, influxDbWriteObject.getPrecision(),
-                    stringBuilder);
-            stringBuilder.append("\n");
+            mergeFields(fields, point.getFields(), point.getMeasurement());
         }
 
-        return stringBuilder.toString();
+        for (Map.Entry<GroupKey, Map<String, Object>> group : groups.entrySet()) {
+            GroupKey key = group.getKey();
+            lineProtocol(key.tags, group.getValue(), realMeasurement, key.time, influxDbWriteObject.getPrecision(),
+                buffer);
+            buffer.append('\n');
+        }
     }
 
     /**
@@ -91,52 +117,67 @@ public class InfluxDbWriteObjectSerializer {
      *     dest: {jvm.memory_usage.pools.Code-Cache.max=10}
      */
     private void mergeFields(Map<String, Object> dest, Map<String, Object> src, String measurement) {
-        String[] words = FIELD.split(measurement, 2);
-        String tail;
-
-        if (words.length == 2) {
-            tail = words[1];
-        } else {
-            tail = measurement;
+        FieldNames names = fieldNames.get(measurement);
+        if (names == null) {
+            if (fieldNames.size() >= EscapedNameCache.DEFAULT_MAX_SIZE) {
+                fieldNames.clear();
+            }
+            names = new FieldNames(measurement);
+            fieldNames.put(measurement, names);
         }
 
         for (Map.Entry<String, Object> field : src.entrySet()) {
-            if (src.entrySet().size() == 1 && field.getKey().equals("value")) {
-                dest.put(tail, field.getValue());
-            }
-            else {
-                dest.put(tail + "." + field.getKey(), field.getValue());
+            if (src.size() == 1 && field.getKey().equals("value")) {
+                dest.put(names.tail, field.getValue());
+            } else {
+                dest.put(names.get(field.getKey()), field.getValue());
             }
         }
     }
 
-    private void pointLineProtocol(InfluxDbPoint point, TimeUnit precision, StringBuilder stringBuilder) {
-        lineProtocol(point.getTags(), point.getFields(), point.getMeasurement(), point.getTime(),
-                precision, stringBuilder);
+    private void pointLineProtocol(InfluxDbPoint point, TimeUnit precision, LineProtocolBuffer buffer) {
+        InfluxDbSeriesKey seriesKey = point.getSeriesKey();
+        if (seriesKey == null) {
+            lineProtocol(point.getTags(), point.getFields(), point.getMeasurement(), point.getTime(),
+                    precision, buffer);
+            return;
+        }
+        buffer.append(encodedSeriesKey(seriesKey)).append(' ');
+        concatenateFields(point.getFields(), buffer);
+        formattedTime(point.getTime(), precision, buffer);
+    }
+
+    /**
+     * The measurement and tags of a series key are encoded once and then cached on the key by this serializer.
+     */
+    private byte[] encodedSeriesKey(InfluxDbSeriesKey seriesKey) {
+        byte[] encoded = seriesKey.getEncoded(this);
+        if (encoded == null) {
+            LineProtocolBuffer series = new LineProtocolBuffer(128);
+            seriesLineProtocol(seriesKey.getTags(), seriesKey.getMeasurement(), series);
+            encoded = series.toByteArray();
+            seriesKey.setEncoded(this, encoded);
+        }
+        return encoded;
     }
 
     private void lineProtocol(Map<String, String> tags, Map<String, Object> fields,
-            String measurement, Long time, TimeUnit precision, StringBuilder stringBuilder) {
-        stringBuilder.append(escapeMeasurement(measurementPrefix + measurement));
-        concatenatedTags(tags, stringBuilder);
-        concatenateFields(fields, stringBuilder);
-        formattedTime(time, precision, stringBuilder);
+            String measurement, Long time, TimeUnit precision, LineProtocolBuffer buffer) {
+        seriesLineProtocol(tags, measurement, buffer);
+        buffer.append(' ');
+        concatenateFields(fields, buffer);
+        formattedTime(time, precision, buffer);
     }
 
-    private void concatenatedTags(Map<String, String> tags, StringBuilder stringBuilder) {
+    private void seriesLineProtocol(Map<String, String> tags, String measurement, LineProtocolBuffer buffer) {
+        buffer.append(measurements.get(measurement));
         for (Map.Entry<String, String> tag : tags.entrySet()) {
-            stringBuilder.append(",");
-            stringBuilder.append(escapeKey(tag.getKey())).append("=").append(escapeKey(tag.getValue()));
+            buffer.append(',');
+            buffer.append(keys.get(tag.getKey())).append('=').append(keys.get(tag.getValue()));
         }
-        stringBuilder.append(" ");
     }
 
-    private void concatenateFields(Map<String, Object> fields, StringBuilder stringBuilder) {
-        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
-        numberFormat.setMaximumFractionDigits(340);
-        numberFormat.setGroupingUsed(false);
-        numberFormat.setMinimumFractionDigits(1);
-
+    private void concatenateFields(Map<String, Object> fields, LineProtocolBuffer buffer) {
         boolean firstField = true;
         for (Map.Entry<String, Object> field : fields.entrySet()) {
             Object value = field.getValue();
@@ -150,45 +191,123 @@ public class InfluxDbWriteObjectSerializer {
                 if (floatValue.isNaN() || floatValue.isInfinite()) {
                     continue;
                 }
+            } else if (value instanceof Number && !isIntegral(value) && !isExact(value)) {
+                double doubleValue = ((Number) value).doubleValue();
+                if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                    continue;
+                }
             }
 
             if (!firstField) {
-                stringBuilder.append(",");
+                buffer.append(',');
             }
-            stringBuilder.append(escapeKey(field.getKey())).append("=");
+            buffer.append(keys.get(field.getKey())).append('=');
             firstField = false;
             if (value instanceof String) {
                 String stringValue = (String) value;
-                stringBuilder.append("\"").append(escapeField(stringValue)).append("\"");
+                buffer.append('"').append(LineProtocolEscaper.escapeStringField(stringValue)).append('"');
             } else if (value instanceof Number) {
-                stringBuilder.append(numberFormat.format(value));
+                appendNumber((Number) value, buffer);
             } else if (value instanceof Boolean) {
-                stringBuilder.append(value);
+                buffer.append(value.toString());
             } else {
-                stringBuilder.append("\"").append(escapeField(value.toString())).append("\"");
+                buffer.append('"').append(LineProtocolEscaper.escapeStringField(value.toString())).append('"');
             }
         }
     }
 
-    private void formattedTime(Long time, TimeUnit precision, StringBuilder stringBuilder) {
+    private void appendNumber(Number value, LineProtocolBuffer buffer) {
+        if (isIntegral(value)) {
+            if (integerFields) {
+                buffer.append(value.longValue()).append('i');
+            } else {
+                NumberFormatter.appendLong(buffer, value.longValue());
+            }
+        } else if (isExact(value)) {
+            buffer.append(exactNumberFormat().format(value));
+        } else {
+            NumberFormatter.appendDouble(buffer, value.doubleValue());
+        }
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+            || value instanceof AtomicLong || value instanceof AtomicInteger;
+    }
+
+    private static boolean isExact(Object value) {
+        return value instanceof BigDecimal || value instanceof BigInteger;
+    }
+
+    // Arbitrary precision values are rare enough to go through NumberFormat, which lays them out exactly.
+    private static NumberFormat exactNumberFormat() {
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+        numberFormat.setMaximumFractionDigits(340);
+        numberFormat.setGroupingUsed(false);
+        numberFormat.setMinimumFractionDigits(1);
+        return numberFormat;
+    }
+
+    private void formattedTime(Long time, TimeUnit precision, LineProtocolBuffer buffer) {
         if (null == time) {
             time = System.currentTimeMillis();
         }
-        stringBuilder.append(" ").append(precision.convert(time, TimeUnit.MILLISECONDS));
+        buffer.append(' ').append(precision.convert(time, TimeUnit.MILLISECONDS));
     }
 
-    private String escapeKey(String key) {
-        String toBeEscaped = SPACE.matcher(key).replaceAll("\\\\ ");
-        toBeEscaped = COMMA.matcher(toBeEscaped).replaceAll("\\\\,");
-        return EQUAL.matcher(toBeEscaped).replaceAll("\\\\=");
-    }
+    /**
+     * The timestamp and tag set shared by the points grouped into a line.
+     */
+    private static final class GroupKey {
+        private final Long time;
+        private final Map<String, String> tags;
+        private final int hashCode;
+
+        GroupKey(Long time, Map<String, String> tags) {
+            this.time = time;
+            this.tags = tags;
+            this.hashCode = 31 * Objects.hashCode(time) + tags.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) o;
+            return hashCode == other.hashCode && Objects.equals(time, other.time) && tags.equals(other.tags);
+        }
 
-    private String escapeMeasurement(String key) {
-        String toBeEscaped = SPACE.matcher(key).replaceAll("\\\\ ");
-        return COMMA.matcher(toBeEscaped).replaceAll("\\\\,");
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
     }
 
-    private String escapeField(String field) {
-        return DOUBLE_QUOTE.matcher(field).replaceAll("\\\"");
+    /**
+     * The grouped field names of a measurement, computed once per measurement instead of once per point.
+     */
+    private static final class FieldNames {
+        private final String tail;
+        private final String prefix;
+        private final Map<String, String> names = new ConcurrentHashMap<>();
+
+        FieldNames(String measurement) {
+            int firstDot = measurement.indexOf('.');
+            this.tail = firstDot == -1 ? measurement : measurement.substring(firstDot + 1);
+            this.prefix = tail + ".";
+        }
+
+        String get(String key) {
+            String name = names.get(key);
+            if (name == null) {
+                name = prefix + key;
+                names.put(key, name);
+            }
+            return name;
+        }
     }
 }
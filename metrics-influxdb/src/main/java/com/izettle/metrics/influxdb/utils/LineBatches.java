@@ -0,0 +1,107 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.util.Arrays;
+
+/**
+ * Splits encoded line protocol into batches of whole lines, bounded by a number of lines and a number of bytes.
+ * <p>
+ * The batches are slices of the encoded bytes, kept as offsets and lengths, so splitting copies nothing. The arrays
+ * holding the slices are reused by the next {@link #split}, instances are not thread safe.
+ * </p>
+ */
+public class LineBatches {
+
+    private int[] offsets = new int[8];
+    private int[] lengths = new int[8];
+    private int count;
+    private int oversized;
+
+    /**
+     * Splits the bytes into batches of at most {@code maxLines} lines and {@code maxBytes} bytes. A line that is
+     * longer than {@code maxBytes} on its own can not be split and ends up alone in a batch, see
+     * {@link #oversized()}.
+     *
+     * @param bytes    the encoded lines, each ending with a newline
+     * @param offset   the offset of the first line
+     * @param length   the number of bytes holding lines
+     * @param maxLines the maximum number of lines in a batch
+     * @param maxBytes the maximum number of bytes in a batch
+     */
+    public void split(byte[] bytes, int offset, int length, int maxLines, int maxBytes) {
+        if (maxLines <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxLines and maxBytes should be gt 0");
+        }
+        count = 0;
+        oversized = 0;
+        final int end = offset + length;
+        int batchStart = offset;
+        int batchLines = 0;
+        int lineStart = offset;
+        while (lineStart < end) {
+            int lineEnd = indexOfNewline(bytes, lineStart, end) + 1;
+            if (batchLines > 0 && (batchLines == maxLines || lineEnd - batchStart > maxBytes)) {
+                add(batchStart, lineStart - batchStart);
+                batchStart = lineStart;
+                batchLines = 0;
+            }
+            if (lineEnd - lineStart > maxBytes) {
+                oversized++;
+            }
+            batchLines++;
+            lineStart = lineEnd;
+        }
+        if (batchLines > 0) {
+            add(batchStart, end - batchStart);
+        }
+    }
+
+    /**
+     * @return the number of batches found by the last split.
+     */
+    public int count() {
+        return count;
+    }
+
+    public int offset(int batch) {
+        checkIndex(batch);
+        return offsets[batch];
+    }
+
+    public int length(int batch) {
+        checkIndex(batch);
+        return lengths[batch];
+    }
+
+    /**
+     * @return the number of lines of the last split that were longer than the maximum batch size on their own.
+     */
+    public int oversized() {
+        return oversized;
+    }
+
+    private void add(int offset, int length) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count << 1);
+            lengths = Arrays.copyOf(lengths, count << 1);
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+
+    private void checkIndex(int batch) {
+        if (batch < 0 || batch >= count) {
+            throw new IndexOutOfBoundsException("Batch " + batch + " of " + count);
+        }
+    }
+
+    // returns the index of the newline ending the line, or end - 1 for a last line without one
+    private static int indexOfNewline(byte[] bytes, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return end - 1;
+    }
+}
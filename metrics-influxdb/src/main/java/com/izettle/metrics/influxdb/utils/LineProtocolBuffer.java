@@ -0,0 +1,200 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that line protocol is encoded into as UTF-8.
+ * <p>
+ * The buffer is meant to be reused between reporting cycles, {@link #reset()} keeps the backing array so that once
+ * it has grown to the size of a cycle, encoding does not allocate. The encoded bytes are read directly from
+ * {@link #array()} up to {@link #size()}, senders never need a copy of the payload.
+ * </p>
+ */
+public class LineProtocolBuffer {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] bytes;
+    private int size;
+
+    public LineProtocolBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LineProtocolBuffer(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity should be gte 0");
+        }
+        this.bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * Empties the buffer while keeping the backing array.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of bytes written to the buffer.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the backing array, holding the encoded bytes from index 0 up to {@link #size()}.
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * Makes sure there is room for another {@code additional} bytes.
+     *
+     * @param additional the number of bytes about to be written
+     */
+    public void ensureCapacity(int additional) {
+        int required = size + additional;
+        if (required < 0) {
+            throw new OutOfMemoryError("Line protocol buffer can not grow beyond " + Integer.MAX_VALUE + " bytes");
+        }
+        if (required > bytes.length) {
+            int newCapacity = Math.max(bytes.length << 1, required);
+            if (newCapacity < 0) {
+                newCapacity = Integer.MAX_VALUE;
+            }
+            bytes = Arrays.copyOf(bytes, newCapacity);
+        }
+    }
+
+    /**
+     * Counts {@code count} bytes written straight into {@link #array()}, after making room for them with
+     * {@link #ensureCapacity(int)}.
+     */
+    public void skip(int count) {
+        if (count < 0 || size + count > bytes.length) {
+            throw new IndexOutOfBoundsException("Can not skip " + count + " bytes");
+        }
+        size += count;
+    }
+
+    public LineProtocolBuffer append(byte b) {
+        ensureCapacity(1);
+        bytes[size++] = b;
+        return this;
+    }
+
+    /**
+     * Appends a character from the ASCII range, like the delimiters of the line protocol.
+     */
+    public LineProtocolBuffer append(char c) {
+        return append((byte) c);
+    }
+
+    public LineProtocolBuffer append(byte[] src) {
+        return append(src, 0, src.length);
+    }
+
+    public LineProtocolBuffer append(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Appends the string encoded as UTF-8. Malformed surrogates are replaced with '?', as {@link String#getBytes}
+     * would.
+     */
+    public LineProtocolBuffer append(String s) {
+        final int length = s.length();
+        ensureCapacity(length * 3);
+        final byte[] dst = bytes;
+        int pos = size;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xc0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                dst[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                dst[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                dst[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                dst[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                dst[pos++] = '?';
+            } else {
+                dst[pos++] = (byte) (0xe0 | (c >> 12));
+                dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                dst[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        size = pos;
+        return this;
+    }
+
+    /**
+     * Appends the decimal representation of the value without going through a String.
+     */
+    public LineProtocolBuffer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(LONG_MIN_VALUE);
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int end = size + digits(value);
+        int pos = end;
+        do {
+            bytes[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        size = end;
+        return this;
+    }
+
+    /**
+     * @return a read-only view of the encoded bytes, sharing the backing array.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, size).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the encoded bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private static int digits(long value) {
+        long limit = 10;
+        for (int digits = 1; digits < 19; digits++) {
+            if (value < limit) {
+                return digits;
+            }
+            limit *= 10;
+        }
+        return 19;
+    }
+}
@@ -0,0 +1,69 @@
+package com.izettle.metrics.influxdb.utils;
+
+/**
+ * Escapes names and values for the line protocol in a single pass.
+ * <p>
+ * Almost all names need no escaping at all, so the input is scanned first and returned as is, without allocating,
+ * unless it holds a character that has to be escaped.
+ * </p>
+ */
+public final class LineProtocolEscaper {
+
+    private LineProtocolEscaper() {
+    }
+
+    /**
+     * Escapes spaces and commas in a measurement name.
+     */
+    public static String escapeMeasurement(String measurement) {
+        return escape(measurement, false);
+    }
+
+    /**
+     * Escapes spaces, commas and equals signs in a tag key, tag value or field key.
+     */
+    public static String escapeKey(String key) {
+        return escape(key, true);
+    }
+
+    /**
+     * Escapes double quotes in a string field value.
+     */
+    public static String escapeStringField(String field) {
+        int index = field.indexOf('"');
+        if (index < 0) {
+            return field;
+        }
+        StringBuilder escaped = new StringBuilder(field.length() + 8).append(field, 0, index);
+        for (int i = index; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static String escape(String name, boolean escapeEquals) {
+        final int length = name.length();
+        for (int i = 0; i < length; i++) {
+            if (needsEscape(name.charAt(i), escapeEquals)) {
+                StringBuilder escaped = new StringBuilder(length + 8).append(name, 0, i);
+                for (int j = i; j < length; j++) {
+                    char c = name.charAt(j);
+                    if (needsEscape(c, escapeEquals)) {
+                        escaped.append('\\');
+                    }
+                    escaped.append(c);
+                }
+                return escaped.toString();
+            }
+        }
+        return name;
+    }
+
+    private static boolean needsEscape(char c, boolean escapeEquals) {
+        return c == ' ' || c == ',' || (escapeEquals && c == '=');
+    }
+}
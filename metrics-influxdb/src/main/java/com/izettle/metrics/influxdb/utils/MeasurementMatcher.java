@@ -0,0 +1,130 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Maps metric names to measurement names, by the first of an ordered set of regular expressions matching the whole
+ * name.
+ * <p>
+ * Consecutive expressions are compiled into a single alternation, each in a group of its own, so that a name is
+ * matched against all of them in one pass and the group that matched tells the measurement. Alternatives are tried in
+ * order, so the first mapping matching a name wins, as it would matching them one by one. An expression using flags
+ * or numbered back references, which would refer to the wrong groups once combined, is matched on its own between
+ * the alternations before and after it, and a run of expressions that fails to compile as one, e.g. for named groups
+ * clashing with each other, is matched one by one. Instances are thread safe.
+ * </p>
+ */
+public class MeasurementMatcher {
+
+    private static final Pattern BACK_REFERENCE = Pattern.compile("(?<!\\\\)(\\\\\\\\)*\\\\[1-9]");
+
+    /**
+     * Consecutive mappings matched in one pass.
+     */
+    private static final class Run {
+        private final Pattern pattern;
+        private final int first;
+        // the group of each mapping of the run, null for a single mapping matched on its own
+        private final int[] groups;
+
+        private Run(Pattern pattern, int first, int[] groups) {
+            this.pattern = pattern;
+            this.first = first;
+            this.groups = groups;
+        }
+    }
+
+    private final String[] measurements;
+    private final Run[] runs;
+
+    /**
+     * @param mappings the expressions by measurement name, in the order they take precedence
+     */
+    public MeasurementMatcher(Map<String, Pattern> mappings) {
+        this.measurements = new String[mappings.size()];
+        Pattern[] patterns = new Pattern[mappings.size()];
+        int i = 0;
+        for (Map.Entry<String, Pattern> entry : mappings.entrySet()) {
+            measurements[i] = entry.getKey();
+            patterns[i] = entry.getValue();
+            i++;
+        }
+        List<Run> runs = new ArrayList<>();
+        int start = 0;
+        for (i = 0; i < patterns.length; i++) {
+            if (!isCombinable(patterns[i])) {
+                combine(patterns, start, i, runs);
+                runs.add(new Run(patterns[i], i, null));
+                start = i + 1;
+            }
+        }
+        combine(patterns, start, patterns.length, runs);
+        this.runs = runs.toArray(new Run[0]);
+    }
+
+    /**
+     * @return the measurement of the first mapping matching the whole name, or null if none does
+     */
+    public String match(String name) {
+        for (Run run : runs) {
+            Matcher matcher = run.pattern.matcher(name);
+            if (!matcher.matches()) {
+                continue;
+            }
+            if (run.groups == null) {
+                return measurements[run.first];
+            }
+            for (int i = 0; i < run.groups.length; i++) {
+                if (matcher.start(run.groups[i]) != -1) {
+                    return measurements[run.first + i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of patterns a name not matching any mapping is matched against, 1 when all expressions are
+     * combined
+     */
+    public int getPatternCount() {
+        return runs.length;
+    }
+
+    private static boolean isCombinable(Pattern pattern) {
+        return pattern.flags() == 0 && !BACK_REFERENCE.matcher(pattern.pattern()).find();
+    }
+
+    /**
+     * Adds the runs matching the patterns from {@code from}, inclusive, to {@code to}, exclusive.
+     */
+    private static void combine(Pattern[] patterns, int from, int to, List<Run> runs) {
+        if (to <= from) {
+            return;
+        }
+        if (to - from == 1) {
+            runs.add(new Run(patterns[from], from, null));
+            return;
+        }
+        List<String> alternatives = new ArrayList<>(to - from);
+        int[] groups = new int[to - from];
+        int group = 1;
+        for (int i = from; i < to; i++) {
+            groups[i - from] = group;
+            alternatives.add("(" + patterns[i].pattern() + ")");
+            group += 1 + patterns[i].matcher("").groupCount();
+        }
+        try {
+            runs.add(new Run(Pattern.compile(String.join("|", alternatives)), from, groups));
+        } catch (PatternSyntaxException e) {
+            for (int i = from; i < to; i++) {
+                runs.add(new Run(patterns[i], i, null));
+            }
+        }
+    }
+}
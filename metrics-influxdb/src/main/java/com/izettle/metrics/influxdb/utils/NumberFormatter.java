@@ -0,0 +1,251 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Writes numbers as ASCII straight into a {@link LineProtocolBuffer}, without intermediate strings.
+ * <p>
+ * Doubles are written with the shortest decimal that rounds back to the same double, computed with the Schubfach
+ * algorithm by Raffaello Giulietti ("The Schubfach way to render doubles", 2020), and laid out in plain notation with
+ * at least one fraction digit, e.g. {@code 0.00001} or {@code 100000000000000000000.0}. That is the layout the
+ * serializer used to get from {@link java.text.NumberFormat}, so the wire format does not change.
+ * </p>
+ */
+public final class NumberFormatter {
+
+    private static final int P = 53;
+    private static final int W = 11;
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final int BQ_MASK = (1 << W) - 1;
+    private static final long T_MASK = (1L << (P - 1)) - 1;
+    private static final int C_TINY = 3;
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long MASK_63 = (1L << 63) - 1;
+
+    private static final long[] POW10 = new long[19];
+
+    /*
+     * For each k in [K_MIN, K_MAX] let 10^-k = b 2^r with 2^125 <= b < 2^126, then g = floor(b) + 1 is stored as
+     * g1 = floor(g 2^-63) at index 2 (k - K_MIN) and g0 = g mod 2^63 at the index after.
+     */
+    private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+        BigInteger mask63 = BigInteger.valueOf(MASK_63);
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int r = flog2pow10(-k) - 125;
+            BigInteger numerator = BigInteger.ONE;
+            BigInteger denominator = BigInteger.ONE;
+            if (k < 0) {
+                numerator = numerator.multiply(BigInteger.TEN.pow(-k));
+            } else {
+                denominator = denominator.multiply(BigInteger.TEN.pow(k));
+            }
+            if (r < 0) {
+                numerator = numerator.shiftLeft(-r);
+            } else {
+                denominator = denominator.shiftLeft(r);
+            }
+            BigInteger g = numerator.divide(denominator).add(BigInteger.ONE);
+            G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+            G[2 * (k - K_MIN) + 1] = g.and(mask63).longValue();
+        }
+    }
+
+    private NumberFormatter() {
+    }
+
+    /**
+     * Appends the integer value in the same layout as a double, e.g. {@code 1234.0}.
+     */
+    public static void appendLong(LineProtocolBuffer buffer, long value) {
+        buffer.append(value).append('.').append('0');
+    }
+
+    /**
+     * Appends the shortest decimal that uniquely identifies the value. Callers are expected to leave out NaN and
+     * infinite values, which have no representation in the line protocol.
+     *
+     * @throws IllegalArgumentException if the value is NaN or infinite
+     */
+    public static void appendDouble(LineProtocolBuffer buffer, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        long t = bits & T_MASK;
+        int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+        if (bq == BQ_MASK) {
+            throw new IllegalArgumentException("Can not format " + value);
+        }
+        buffer.ensureCapacity(330);
+        if (bits < 0) {
+            buffer.append('-');
+        }
+        if (bq != 0) {
+            // normal value, v = c 2^-mq
+            int mq = -Q_MIN + 1 - bq;
+            long c = C_MIN | t;
+            if (0 < mq && mq < P) {
+                // fast path for integers, the exact value is also the shortest
+                long f = c >> mq;
+                if (f << mq == c) {
+                    appendDecimal(buffer, f, 0);
+                    return;
+                }
+            }
+            toDecimal(buffer, -mq, c, 0);
+        } else if (t != 0) {
+            // subnormal value
+            if (t < C_TINY) {
+                toDecimal(buffer, Q_MIN, 10 * t, -1);
+            } else {
+                toDecimal(buffer, Q_MIN, t, 0);
+            }
+        } else {
+            buffer.append('0').append('.').append('0');
+        }
+    }
+
+    private static void toDecimal(LineProtocolBuffer buffer, int q, long c, int dk) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            // regular spacing
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // irregular spacing
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G[2 * (k - K_MIN)];
+        long g0 = G[2 * (k - K_MIN) + 1];
+
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // s' = floor(s / 10), try the candidates one digit shorter first
+            long sp10 = 10 * multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                appendDecimal(buffer, upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            appendDecimal(buffer, uin ? s : t, k + dk);
+            return;
+        }
+        // both candidates round to v, pick the closest one and the even one on ties
+        long cmp = vb - ((s + t) << 1);
+        appendDecimal(buffer, cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk);
+    }
+
+    /**
+     * Lays out f 10^e in plain notation with at least one fraction digit.
+     */
+    private static void appendDecimal(LineProtocolBuffer buffer, long f, int e) {
+        if (f == 0) {
+            buffer.append('0').append('.').append('0');
+            return;
+        }
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        if (e >= 0) {
+            buffer.append(f);
+            appendZeros(buffer, e);
+            buffer.append('.').append('0');
+            return;
+        }
+        int fractionDigits = -e;
+        int point = digits(f) - fractionDigits;
+        if (point > 0) {
+            long divisor = POW10[fractionDigits];
+            long fraction = f % divisor;
+            buffer.append(f / divisor).append('.');
+            appendZeros(buffer, fractionDigits - digits(fraction));
+            buffer.append(fraction);
+        } else {
+            buffer.append('0').append('.');
+            appendZeros(buffer, -point);
+            buffer.append(f);
+        }
+    }
+
+    private static void appendZeros(LineProtocolBuffer buffer, int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.append('0');
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (digits < POW10.length && value >= POW10[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /*
+     * Computes rop(cp g 2^-127), where g = g1 2^63 + g0, rounding to odd.
+     */
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+
+    /*
+     * Math.multiplyHigh is only available from Java 9.
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    // floor(log10(2^e))
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    // floor(log10(3/4 2^e))
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    // floor(log2(10^e))
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
@@ -0,0 +1,280 @@
+package com.izettle.metrics.influxdb.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size spool of encoded line protocol, kept in a memory-mapped ring file, for holding on to writes while
+ * InfluxDb can not be reached.
+ * <p>
+ * Records are appended at the tail and read back from the head, in the order they were appended. When the spool is
+ * full, appending evicts the oldest records to make room. Appending copies the bytes into the mapped file, it does
+ * not wait for the disk, see {@link #flush()}. The positions of the head and tail are kept in the file as well, so
+ * that the records survive a restart of the process. Each record is checked against a checksum when read, a spool
+ * found to be corrupt is emptied.
+ * </p>
+ * <p>
+ * The file layout is a header of {@value #HEADER_BYTES} bytes, followed by the ring of records, each a length, a
+ * CRC32 of the bytes and the bytes. A file created with another capacity is emptied and resized. Instances are
+ * thread safe.
+ * </p>
+ */
+public class RingFileSpool implements Closeable {
+
+    static final int HEADER_BYTES = 32;
+    private static final int MAGIC = 0x494e4653;
+    private static final int VERSION = 1;
+    private static final int CAPACITY_POSITION = 8;
+    private static final int HEAD_POSITION = 16;
+    private static final int TAIL_POSITION = 24;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final FileChannel file;
+    private final MappedByteBuffer mapped;
+    private final int capacity;
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[4];
+    // logical positions, only ever growing, the position in the ring is the remainder by the capacity
+    private long head;
+    private long tail;
+    private long evictedRecords;
+    private long rejectedRecords;
+    private boolean dirty;
+
+    /**
+     * Opens the spool file, creating it if it does not exist and keeping the records it holds otherwise.
+     *
+     * @param path          the spool file
+     * @param capacityBytes the size of the ring, the records appended take 8 bytes more than their length
+     * @throws IOException if the file can not be opened or mapped
+     */
+    public RingFileSpool(File path, int capacityBytes) throws IOException {
+        if (capacityBytes <= RECORD_HEADER_BYTES || capacityBytes > Integer.MAX_VALUE - HEADER_BYTES) {
+            throw new IllegalArgumentException(
+                "capacityBytes should be between " + (RECORD_HEADER_BYTES + 1) + " and "
+                    + (Integer.MAX_VALUE - HEADER_BYTES));
+        }
+        this.capacity = capacityBytes;
+        this.file = FileChannel.open(path.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = (long) HEADER_BYTES + capacityBytes;
+            if (file.size() > size) {
+                file.truncate(size);
+            }
+            this.mapped = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        if (!readHeader()) {
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putLong(CAPACITY_POSITION, capacity);
+            head = 0;
+            tail = 0;
+            writePositions();
+        }
+    }
+
+    /**
+     * Appends a record, evicting the oldest records if there is not room enough.
+     *
+     * @return false if the record is larger than the whole spool, and was not appended
+     */
+    public synchronized boolean append(byte[] bytes, int offset, int length) {
+        long recordBytes = (long) RECORD_HEADER_BYTES + length;
+        if (recordBytes > capacity) {
+            rejectedRecords++;
+            return false;
+        }
+        while (capacity - (tail - head) < recordBytes) {
+            evictOldest();
+        }
+        crc.reset();
+        crc.update(bytes, offset, length);
+        putInt(tail, length);
+        putInt(tail + 4, (int) crc.getValue());
+        put(tail + RECORD_HEADER_BYTES, bytes, offset, length);
+        tail += recordBytes;
+        writePositions();
+        return true;
+    }
+
+    /**
+     * Copies the oldest record into the buffer, without removing it.
+     *
+     * @param into the buffer to copy the record into, reset first
+     * @return the position of the record, to be passed to {@link #remove(long)}, or -1 if the spool is empty
+     */
+    public synchronized long peek(LineProtocolBuffer into) {
+        if (head == tail) {
+            return -1;
+        }
+        int length = getInt(head);
+        if (!isValidLength(length)) {
+            clear();
+            return -1;
+        }
+        int expectedCrc = getInt(head + 4);
+        into.reset();
+        into.ensureCapacity(length);
+        get(head + RECORD_HEADER_BYTES, into.array(), 0, length);
+        into.skip(length);
+        crc.reset();
+        crc.update(into.array(), 0, length);
+        if ((int) crc.getValue() != expectedCrc) {
+            into.reset();
+            clear();
+            return -1;
+        }
+        return head;
+    }
+
+    /**
+     * Removes the oldest record, if it is still the one at the position returned by {@link #peek}. It may have been
+     * evicted in the meantime.
+     */
+    public synchronized void remove(long position) {
+        if (position == head && head != tail) {
+            head += RECORD_HEADER_BYTES + getInt(head);
+            writePositions();
+        }
+    }
+
+    /**
+     * Removes all records.
+     */
+    public synchronized void clear() {
+        head = tail;
+        writePositions();
+    }
+
+    public synchronized boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return the number of bytes taken by the records, including their headers.
+     */
+    public synchronized long size() {
+        return tail - head;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of records evicted to make room for newer ones, since the spool was opened.
+     */
+    public synchronized long getEvictedRecords() {
+        return evictedRecords;
+    }
+
+    /**
+     * @return the number of records too large to be appended, since the spool was opened.
+     */
+    public synchronized long getRejectedRecords() {
+        return rejectedRecords;
+    }
+
+    /**
+     * Writes the records appended or removed since the last flush to the disk. Records are kept by the operating
+     * system when the process dies without this, flushing only matters for surviving a crash of the system.
+     */
+    public synchronized void flush() {
+        if (dirty) {
+            mapped.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Flushes the spool and closes the file. The file stays mapped until the spool is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private boolean readHeader() {
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || mapped.getLong(CAPACITY_POSITION) != capacity) {
+            return false;
+        }
+        long storedHead = mapped.getLong(HEAD_POSITION);
+        long storedTail = mapped.getLong(TAIL_POSITION);
+        if (storedHead < 0 || storedTail < storedHead || storedTail - storedHead > capacity) {
+            return false;
+        }
+        head = storedHead;
+        tail = storedTail;
+        return true;
+    }
+
+    private void evictOldest() {
+        int length = getInt(head);
+        if (!isValidLength(length)) {
+            clear();
+            return;
+        }
+        head += RECORD_HEADER_BYTES + length;
+        evictedRecords++;
+    }
+
+    private boolean isValidLength(int length) {
+        return length >= 0 && RECORD_HEADER_BYTES + (long) length <= tail - head;
+    }
+
+    private void writePositions() {
+        mapped.putLong(HEAD_POSITION, head);
+        mapped.putLong(TAIL_POSITION, tail);
+        dirty = true;
+    }
+
+    private void putInt(long position, int value) {
+        scratch[0] = (byte) (value >>> 24);
+        scratch[1] = (byte) (value >>> 16);
+        scratch[2] = (byte) (value >>> 8);
+        scratch[3] = (byte) value;
+        put(position, scratch, 0, 4);
+    }
+
+    private int getInt(long position) {
+        get(position, scratch, 0, 4);
+        return (scratch[0] & 0xff) << 24 | (scratch[1] & 0xff) << 16 | (scratch[2] & 0xff) << 8 | (scratch[3] & 0xff);
+    }
+
+    // The Buffer casts keep the class linking on Java 8, where MappedByteBuffer does not override position.
+    private void put(long position, byte[] src, int offset, int length) {
+        int ringPosition = (int) (position % capacity);
+        int first = Math.min(length, capacity - ringPosition);
+        ((Buffer) mapped).position(HEADER_BYTES + ringPosition);
+        mapped.put(src, offset, first);
+        if (first < length) {
+            ((Buffer) mapped).position(HEADER_BYTES);
+            mapped.put(src, offset + first, length - first);
+        }
+    }
+
+    private void get(long position, byte[] dst, int offset, int length) {
+        int ringPosition = (int) (position % capacity);
+        int first = Math.min(length, capacity - ringPosition);
+        ((Buffer) mapped).position(HEADER_BYTES + ringPosition);
+        mapped.get(dst, offset, first);
+        if (first < length) {
+            ((Buffer) mapped).position(HEADER_BYTES);
+            mapped.get(dst, offset + first, length - first);
+        }
+    }
+}
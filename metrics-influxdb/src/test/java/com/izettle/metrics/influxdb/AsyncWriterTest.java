@@ -0,0 +1,147 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.izettle.metrics.influxdb.utils.LineProtocolBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncWriterTest {
+
+    private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> writerThreads = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private AsyncWriter writer;
+
+    @After
+    public void close() {
+        release.countDown();
+        if (writer != null) {
+            writer.close(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldWriteFromDedicatedThread() throws Exception {
+        release.countDown();
+        writer = new AsyncWriter(4, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, this::record);
+        submit("a");
+        submit("b");
+        writer.close(5, TimeUnit.SECONDS);
+
+        assertThat(written).containsExactly("a", "b");
+        assertThat(writerThreads).allMatch(name -> name.startsWith("influxdb-async-writer-"));
+        assertThat(writer.getDroppedReports()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldDropOldestReportWhenFull() throws Exception {
+        writer = new AsyncWriter(2, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, this::record);
+        fillQueue();
+        submit("d");
+        release.countDown();
+        writer.close(5, TimeUnit.SECONDS);
+
+        assertThat(written).containsExactly("a", "c", "d");
+        assertThat(writer.getDroppedReports()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDropNewestReportWhenFull() throws Exception {
+        writer = new AsyncWriter(2, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, this::record);
+        fillQueue();
+        submit("d");
+        release.countDown();
+        writer.close(5, TimeUnit.SECONDS);
+
+        assertThat(written).containsExactly("a", "b", "c");
+        assertThat(writer.getDroppedReports()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDropReportWhenBlockedForLongerThanTimeout() throws Exception {
+        writer = new AsyncWriter(2, OverflowPolicy.BLOCK, 50, TimeUnit.MILLISECONDS, this::record);
+        fillQueue();
+        long start = System.nanoTime();
+        submit("d");
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(40);
+        assertThat(writer.getDroppedReports()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldBlockUntilThereIsRoom() throws Exception {
+        writer = new AsyncWriter(2, OverflowPolicy.BLOCK, 5, TimeUnit.SECONDS, this::record);
+        fillQueue();
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        submit("d");
+        writer.close(5, TimeUnit.SECONDS);
+
+        assertThat(written).containsExactly("a", "b", "c", "d");
+        assertThat(writer.getDroppedReports()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldDropReportsOnceClosed() throws Exception {
+        release.countDown();
+        writer = new AsyncWriter(2, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, this::record);
+        writer.close(5, TimeUnit.SECONDS);
+        submit("a");
+
+        assertThat(written).isEmpty();
+        assertThat(writer.getDroppedReports()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepWritingAfterFailure() throws Exception {
+        release.countDown();
+        writer = new AsyncWriter(2, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, (lines, length) -> {
+            String report = new String(lines, 0, length, StandardCharsets.UTF_8);
+            if (report.equals("fail")) {
+                throw new IllegalStateException("Failed to write");
+            }
+            return record(lines, length);
+        });
+        submit("fail");
+        submit("a");
+        writer.close(5, TimeUnit.SECONDS);
+
+        assertThat(written).containsExactly("a");
+    }
+
+    // "a" is being written and blocks the writer until released, "b" and "c" fill the queue
+    private void fillQueue() throws Exception {
+        submit("a");
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        submit("b");
+        submit("c");
+    }
+
+    private void submit(String report) throws InterruptedException {
+        LineProtocolBuffer buffer = writer.borrow();
+        buffer.append(report);
+        writer.submit(buffer);
+    }
+
+    private int record(byte[] lines, int length) throws InterruptedException {
+        writerThreads.add(Thread.currentThread().getName());
+        written.add(new String(lines, 0, length, StandardCharsets.UTF_8));
+        writing.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return 0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.izettle.metrics.influxdb.InfluxDbBaseSenderTest.RecordingSender;
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class FanOutInfluxDbSenderTest {
+
+    @Test
+    public void shouldWriteReportToEveryDestination() throws Exception {
+        RecordingSender first = new RecordingSender(false);
+        RecordingSender second = new RecordingSender(false);
+        FanOutInfluxDbSender sender = new FanOutInfluxDbSender(
+            "prefix.", Arrays.asList(first, second), 4, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+        sender.appendPoints(new InfluxDbPoint("measurement", Collections.singletonMap("host", "a"), 1000L,
+            Collections.<String, Object>singletonMap("value", 1L)));
+
+        assertThat(sender.writeData()).isEqualTo(0);
+        sender.close();
+
+        assertThat(first.writes).containsExactly("prefix.measurement,host=a value=1.0 1000\n");
+        assertThat(second.writes).containsExactly("prefix.measurement,host=a value=1.0 1000\n");
+    }
+
+    @Test
+    public void shouldNotBeDelayedBySlowDestination() throws Exception {
+        RecordingSender slow = new RecordingSender(false);
+        // the write waits until released
+        CountDownLatch release = new CountDownLatch(2);
+        slow.allInFlight = release;
+        RecordingSender fast = new RecordingSender(false);
+        FanOutInfluxDbSender sender = new FanOutInfluxDbSender(
+            "", Arrays.asList(slow, fast), 1, OverflowPolicy.BLOCK, 200, TimeUnit.MILLISECONDS);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                sender.appendPoints(
+                    new InfluxDbPoint("measurement", 1000L + i, Collections.<String, Object>singletonMap("value", 1L)));
+                sender.writeData();
+                sender.flush();
+            }
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+            release.countDown();
+        } finally {
+            sender.close();
+        }
+
+        assertThat(fast.writes).hasSize(3);
+        assertThat(slow.writes.size()).isLessThan(3);
+        assertThat(slow.getDroppedReports()).isGreaterThan(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDestinationsWithDifferentPrecision() {
+        new FanOutInfluxDbSender("", Arrays.asList(
+            new RecordingSender(false), new InfluxDbUdpSender("localhost", 10080, 1000, "testdb", "")),
+            4, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectOtherSenders() {
+        new FanOutInfluxDbSender("", Arrays.asList(new RecordingSender(false), mock(InfluxDbSender.class)),
+            4, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,95 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+public class InfluxDBKafkaSenderTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDatabaseWithoutHosts() {
+        new InfluxDBKafkaSender("topic", TimeUnit.MILLISECONDS, "");
+    }
+
+    @Test
+    public void shouldSendLinesToProducer() throws Exception {
+        MockProducer<byte[], byte[]> producer =
+            new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        InfluxDBKafkaSender sender = new InfluxDBKafkaSender("metrics", TimeUnit.MILLISECONDS, "", producer);
+        sender.appendPoints(
+            new InfluxDbPoint("measurement", 1000L, Collections.<String, Object>singletonMap("value", 1L)));
+
+        sender.writeData();
+
+        assertThat(producer.history()).hasSize(1);
+        assertThat(producer.history().get(0).topic()).isEqualTo("metrics");
+        assertThat(new String(producer.history().get(0).value(), StandardCharsets.UTF_8))
+            .isEqualTo("measurement value=1.0 1000\n");
+    }
+
+    @Test
+    public void shouldSendOneRecordPerPointKeyedBySeries() throws Exception {
+        MockProducer<byte[], byte[]> producer =
+            new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        InfluxDBKafkaSender sender =
+            new InfluxDBKafkaSender("metrics", TimeUnit.MILLISECONDS, "", producer, KafkaRecordMode.POINT);
+        sender.appendPoints(new InfluxDbPoint("cpu load", Collections.singletonMap("host", "a"), 1000L,
+            Collections.<String, Object>singletonMap("value", 1L)));
+        sender.appendPoints(new InfluxDbPoint("memory", 1000L, Collections.<String, Object>singletonMap("value", 2L)));
+
+        sender.writeData();
+
+        assertThat(producer.history()).hasSize(2);
+        Map<String, String> records = new HashMap<>();
+        for (ProducerRecord<byte[], byte[]> record : producer.history()) {
+            records.put(new String(record.key(), StandardCharsets.UTF_8),
+                new String(record.value(), StandardCharsets.UTF_8));
+        }
+        assertThat(records).containsEntry("cpu\\ load,host=a", "cpu\\ load,host=a value=1.0 1000\n");
+        assertThat(records).containsEntry("memory", "memory value=2.0 1000\n");
+    }
+
+    @Test
+    public void shouldCountRecordsFailedToBeSent() throws Exception {
+        MockProducer<byte[], byte[]> producer =
+            new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        InfluxDBKafkaSender sender = new InfluxDBKafkaSender("metrics", TimeUnit.MILLISECONDS, "", producer);
+        MetricRegistry selfRegistry = new MetricRegistry();
+        sender.setMetrics(new SenderMetrics(selfRegistry, "self"));
+        sender.appendPoints(
+            new InfluxDbPoint("measurement", 1000L, Collections.<String, Object>singletonMap("value", 1L)));
+
+        sender.writeData();
+        assertThat(sender.getFailedRecords()).isEqualTo(0);
+
+        producer.errorNext(new TimeoutException("Expired"));
+        assertThat(sender.getFailedRecords()).isEqualTo(1);
+        assertThat(selfRegistry.meter("self.failures.TimeoutException").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFlushProducerOfCallerWhenClosed() throws Exception {
+        MockProducer<byte[], byte[]> producer =
+            new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        InfluxDBKafkaSender sender = new InfluxDBKafkaSender("metrics", TimeUnit.MILLISECONDS, "", producer);
+        sender.appendPoints(
+            new InfluxDbPoint("measurement", 1000L, Collections.<String, Object>singletonMap("value", 1L)));
+        sender.writeData();
+
+        sender.close();
+
+        assertThat(producer.flushed()).isTrue();
+        assertThat(producer.closed()).isFalse();
+    }
+}
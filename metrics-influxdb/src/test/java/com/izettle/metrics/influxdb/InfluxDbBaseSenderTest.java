@@ -0,0 +1,460 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.utils.RingFileSpool;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InfluxDbBaseSenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static class RecordingSender extends InfluxDbBaseSender {
+        final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+        final boolean concurrent;
+        String failOn;
+        Exception failWith;
+        int failures;
+        int attempts;
+        CountDownLatch allInFlight;
+
+        RecordingSender(boolean concurrent) {
+            super("testdb", TimeUnit.MILLISECONDS, "");
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        protected int writeData(byte[] line, int offset, int length) throws Exception {
+            String lines = new String(line, offset, length, StandardCharsets.UTF_8);
+            if (allInFlight != null) {
+                allInFlight.countDown();
+                if (!allInFlight.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Batches were not written concurrently");
+                }
+            }
+            attempts++;
+            if (failures > 0) {
+                failures--;
+                throw failWith;
+            }
+            if (failOn != null && lines.contains(failOn)) {
+                throw new IOException("Failed to write " + lines.trim());
+            }
+            writes.add(lines);
+            return 204;
+        }
+
+        @Override
+        protected boolean supportsConcurrentWrites() {
+            return concurrent;
+        }
+    }
+
+    @Test
+    public void shouldWriteSmallReportInOneRequest() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        appendPoints(sender, 10);
+
+        assertThat(sender.writeData()).isEqualTo(204);
+        assertThat(sender.writes).hasSize(1);
+    }
+
+    @Test
+    public void shouldSplitReportIntoBatches() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        sender.setMaxBatchPoints(4);
+        appendPoints(sender, 10);
+
+        assertThat(sender.writeData()).isEqualTo(204);
+        assertThat(sender.writes).hasSize(3);
+        assertThat(countLines(sender.writes)).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldSplitReportBySize() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        sender.setMaxBatchBytes(100);
+        appendPoints(sender, 10);
+
+        sender.writeData();
+        assertThat(sender.writes.size()).isGreaterThan(1);
+        for (String write : sender.writes) {
+            assertThat(write.length()).isLessThanOrEqualTo(100);
+        }
+        assertThat(countLines(sender.writes)).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldWriteRemainingBatchesWhenOneFails() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        sender.setMaxBatchPoints(1);
+        sender.failOn = "value=";
+        appendPoints(sender, 3);
+
+        try {
+            sender.writeData();
+            fail("Expected the failed batches to be reported");
+        } catch (IOException e) {
+            assertThat(e.getSuppressed()).hasSize(2);
+        }
+    }
+
+    @Test
+    public void shouldWriteBatchesConcurrently() throws Exception {
+        RecordingSender sender = new RecordingSender(true);
+        sender.setMaxBatchPoints(2);
+        sender.setMaxInFlightBatches(3);
+        sender.allInFlight = new CountDownLatch(3);
+        appendPoints(sender, 6);
+
+        assertThat(sender.writeData()).isEqualTo(204);
+        assertThat(sender.writes).hasSize(3);
+        assertThat(countLines(sender.writes)).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldNotWriteConcurrentlyWhenUnsupported() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        sender.setMaxBatchPoints(2);
+        sender.setMaxInFlightBatches(3);
+        appendPoints(sender, 6);
+
+        sender.writeData();
+        assertThat(sender.writes).hasSize(3);
+    }
+
+    @Test
+    public void shouldWriteFromAnotherThreadWhenAsync() throws Exception {
+        final List<String> writerThreads = Collections.synchronizedList(new ArrayList<String>());
+        RecordingSender sender = new RecordingSender(false) {
+            @Override
+            protected int writeData(byte[] line, int offset, int length) throws Exception {
+                writerThreads.add(Thread.currentThread().getName());
+                return super.writeData(line, offset, length);
+            }
+        };
+        sender.setMaxBatchPoints(2);
+        sender.setAsync(4, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+        appendPoints(sender, 6);
+
+        assertThat(sender.writeData()).isEqualTo(0);
+        sender.close();
+
+        assertThat(sender.writes).hasSize(3);
+        assertThat(countLines(sender.writes)).isEqualTo(6);
+        assertThat(writerThreads).allMatch(name -> name.startsWith("influxdb-async-writer-"));
+        assertThat(sender.getDroppedReports()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldSpoolFailedBatchesAndReplayThem() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        try {
+            sender.setMaxBatchPoints(2);
+            sender.setSpool(new RingFileSpool(folder.newFile(), 1024 * 1024), 10);
+            sender.failOn = "measurement2 ";
+            appendPoints(sender, 6);
+
+            try {
+                sender.writeData();
+                fail("Expected the failed batch to be reported");
+            } catch (IOException e) {
+                assertThat(sender.writes).hasSize(2);
+            }
+            assertThat(sender.getSpool().isEmpty()).isFalse();
+
+            sender.replaySpool();
+            assertThat(sender.writes).hasSize(2);
+            assertThat(sender.getSpool().isEmpty()).isFalse();
+
+            sender.failOn = null;
+            sender.replaySpool();
+            assertThat(sender.writes).hasSize(3);
+            assertThat(sender.writes.get(2)).contains("measurement2 ");
+            assertThat(sender.getSpool().isEmpty()).isTrue();
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void shouldRejectSecondSpool() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        RingFileSpool second = new RingFileSpool(folder.newFile(), 1024);
+        try {
+            sender.setSpool(new RingFileSpool(folder.newFile(), 1024), 10);
+
+            sender.setSpool(second, 10);
+            fail("Expected the second spool to be rejected");
+        } catch (IllegalStateException e) {
+            assertThat(sender.getSpool()).isNotSameAs(second);
+        } finally {
+            second.close();
+            sender.close();
+        }
+    }
+
+    @Test
+    public void shouldNotSpoolRejectedBatches() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        try {
+            sender.setSpool(new RingFileSpool(folder.newFile(), 1024 * 1024), 10);
+            sender.failures = 1;
+            sender.failWith = new InfluxDbHttpException(400, "unable to parse");
+            appendPoints(sender, 2);
+
+            try {
+                sender.writeData();
+                fail("Expected the rejected batch to be reported");
+            } catch (InfluxDbHttpException e) {
+                assertThat(e.getResponseCode()).isEqualTo(400);
+            }
+
+            assertThat(sender.getSpool().isEmpty()).isTrue();
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void shouldRemoveRejectedBatchesWhenReplaying() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        try {
+            sender.setMaxBatchPoints(2);
+            sender.setSpool(new RingFileSpool(folder.newFile(), 1024 * 1024), 10);
+            sender.failOn = "measurement";
+            appendPoints(sender, 4);
+            try {
+                sender.writeData();
+                fail("Expected the failed batches to be reported");
+            } catch (IOException e) {
+                assertThat(sender.writes).isEmpty();
+            }
+
+            sender.failOn = null;
+            sender.failures = 1;
+            sender.failWith = new InfluxDbHttpException(400, "unable to parse");
+            sender.replaySpool();
+
+            assertThat(sender.writes).hasSize(1);
+            assertThat(sender.writes.get(0)).contains("measurement2 ");
+            assertThat(sender.getSpool().isEmpty()).isTrue();
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void shouldRetryFailedWrites() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        sender.setRetryPolicy(new RetryPolicy(3, 10, 10, 10000, TimeUnit.MILLISECONDS));
+        sender.failWith = new IOException("Connection refused");
+        sender.failures = 2;
+        appendPoints(sender, 1);
+
+        assertThat(sender.writeData()).isEqualTo(204);
+        assertThat(sender.attempts).isEqualTo(3);
+        assertThat(sender.writes).hasSize(1);
+    }
+
+    @Test
+    public void shouldNotRetryRejectedWrites() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        sender.setRetryPolicy(new RetryPolicy(3, 0, 0, 1, TimeUnit.SECONDS));
+        sender.failWith = new InfluxDbHttpException(400, "Bad request");
+        sender.failures = 1;
+        appendPoints(sender, 1);
+
+        try {
+            sender.writeData();
+            fail("Expected the rejected write to be reported");
+        } catch (InfluxDbHttpException e) {
+            assertThat(e.getResponseCode()).isEqualTo(400);
+        }
+        assertThat(sender.attempts).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldStopRetryingOnceTheBudgetIsSpent() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        // no budget at all, any backoff exceeds it
+        sender.setRetryPolicy(new RetryPolicy(5, 1, 1, 0, TimeUnit.SECONDS));
+        sender.failWith = new IOException("Connection refused");
+        sender.failures = 5;
+        appendPoints(sender, 1);
+
+        try {
+            sender.writeData();
+            fail("Expected the failed write to be reported");
+        } catch (IOException e) {
+            assertThat(e).hasMessage("Connection refused");
+        }
+        assertThat(sender.attempts).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSkipWritesAndSpoolWhileTheCircuitBreakerIsOpen() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        try {
+            CircuitBreaker breaker = new CircuitBreaker(2, 1, TimeUnit.HOURS);
+            sender.setCircuitBreaker(breaker);
+            sender.setSpool(new RingFileSpool(folder.newFile(), 1024 * 1024), 10);
+            sender.failWith = new IOException("Connection refused");
+            sender.failures = 2;
+            for (int i = 0; i < 3; i++) {
+                appendPoints(sender, 1);
+                try {
+                    sender.writeData();
+                    fail("Expected the failed write to be reported");
+                } catch (IOException e) {
+                    assertThat(sender.writes).isEmpty();
+                }
+            }
+
+            assertThat(sender.attempts).isEqualTo(2);
+            assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+            assertThat(breaker.getSkippedWrites()).isEqualTo(1);
+            assertThat(sender.getSpool().isEmpty()).isFalse();
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void shouldWritePointsAppendedByOtherThreads() throws Exception {
+        final RecordingSender sender = new RecordingSender(false);
+        appendPoints(sender, 1);
+
+        // e.g. points pushed by the application between the cycles of the reporter
+        runInOtherThread(() -> {
+            sender.appendPoints(new InfluxDbPoint(
+                "manual", 1000L, Collections.<String, Object>singletonMap("value", 1L)));
+            return null;
+        });
+        assertThat(sender.hasSeriesData()).isTrue();
+
+        sender.writeData();
+
+        assertThat(sender.writes).hasSize(1);
+        assertThat(sender.writes.get(0)).contains("manual value=1.0 1000\n");
+        assertThat(countLines(sender.writes)).isEqualTo(2);
+        assertThat(sender.hasSeriesData()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepPointsOfOtherProducersWhenFlushed() throws Exception {
+        final RecordingSender sender = new RecordingSender(false);
+        appendPoints(sender, 2);
+
+        // another reporter sharing the sender starts its cycle
+        runInOtherThread(() -> {
+            sender.flush();
+            return null;
+        });
+        assertThat(sender.hasSeriesData()).isTrue();
+
+        sender.writeData();
+
+        assertThat(countLines(sender.writes)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldDiscardPointsOfFailedCycleWhenFlushed() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        appendPoints(sender, 2);
+
+        sender.flush();
+        appendPoints(sender, 1);
+        sender.writeData();
+
+        assertThat(sender.writes).hasSize(1);
+        assertThat(countLines(sender.writes)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotKeepPointsOnceClosed() throws Exception {
+        final RecordingSender sender = new RecordingSender(false);
+        runInOtherThread(() -> {
+            appendPoints(sender, 3);
+            return null;
+        });
+
+        sender.close();
+
+        assertThat(sender.hasSeriesData()).isFalse();
+        assertThat(sender.writeData()).isEqualTo(0);
+        assertThat(sender.writes).isEmpty();
+    }
+
+    @Test
+    public void shouldWriteCyclesConcurrently() throws Exception {
+        final RecordingSender sender = new RecordingSender(true);
+        appendPoints(sender, 3);
+        final PointBuffer.Segment first = sender.takeCycle();
+        appendPoints(sender, 3);
+        final PointBuffer.Segment second = sender.takeCycle();
+        // each write waits for the other to be in flight, which fails if encoding or writing is serialized
+        sender.allInFlight = new CountDownLatch(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> firstWrite = executor.submit(() -> sender.writeCycle(first));
+            Future<Integer> secondWrite = executor.submit(() -> sender.writeCycle(second));
+
+            assertThat(firstWrite.get(10, TimeUnit.SECONDS)).isEqualTo(204);
+            assertThat(secondWrite.get(10, TimeUnit.SECONDS)).isEqualTo(204);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(sender.writes).hasSize(2);
+        assertThat(countLines(sender.writes)).isEqualTo(6);
+    }
+
+    private static <T> T runInOtherThread(Callable<T> task) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(task).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveBatchSize() {
+        new RecordingSender(false).setMaxBatchPoints(0);
+    }
+
+    private static void appendPoints(InfluxDbSender sender, int count) {
+        for (int i = 0; i < count; i++) {
+            sender.appendPoints(new InfluxDbPoint(
+                "measurement" + i, 1000L, Collections.<String, Object>singletonMap("value", (long) i)));
+        }
+    }
+
+    private static int countLines(List<String> writes) {
+        int lines = 0;
+        for (String write : writes) {
+            for (int i = 0; i < write.length(); i++) {
+                if (write.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+        }
+        return lines;
+    }
+}
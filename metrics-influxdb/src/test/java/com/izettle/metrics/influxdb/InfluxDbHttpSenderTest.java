@@ -5,12 +5,22 @@ import static org.assertj.core.api.Assertions.assertThat;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import org.junit.Test;
 
 public class InfluxDbHttpSenderTest {
@@ -110,4 +120,85 @@ public class InfluxDbHttpSenderTest {
             server.stop(0);
         }
     }
+
+    @Test
+    public void shouldSendCompressedBody() throws Exception {
+        final AtomicReference<String> contentEncoding = new AtomicReference<>();
+        final AtomicReference<String> body = new AtomicReference<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(10084), 0);
+        try {
+            server.createContext("/write", exchange -> {
+                contentEncoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                body.set(read(new GZIPInputStream(exchange.getRequestBody())));
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            });
+            server.start();
+            InfluxDbHttpSender influxDbHttpSender = new InfluxDbHttpSender(
+                "http",
+                "localhost",
+                10084,
+                "testdb",
+                "asdf",
+                TimeUnit.MINUTES,
+                1000,
+                1000,
+                "",
+                true,
+                Deflater.BEST_SPEED
+            );
+            influxDbHttpSender.appendPoints(
+                new InfluxDbPoint("measurement", 60000L, Collections.<String, Object>singletonMap("value", 1L)));
+
+            assertThat(influxDbHttpSender.writeData()).isEqualTo(204);
+            assertThat(contentEncoding.get()).isEqualTo("gzip");
+            assertThat(body.get()).isEqualTo("measurement value=1.0 1\n");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldReuseConnection() throws Exception {
+        final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+        HttpServer server = HttpServer.create(new InetSocketAddress(10086), 0);
+        try {
+            server.createContext("/write", exchange -> {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                read(exchange.getRequestBody());
+                byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            });
+            server.start();
+            InfluxDbHttpSender influxDbHttpSender = new InfluxDbHttpSender(
+                "http",
+                "localhost",
+                10086,
+                "testdb",
+                "asdf",
+                TimeUnit.MINUTES,
+                1000,
+                1000,
+                ""
+            );
+            for (int i = 0; i < 3; i++) {
+                assertThat(influxDbHttpSender.writeData(new byte[] {'a'})).isEqualTo(200);
+            }
+            assertThat(clientPorts).hasSize(1);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
 }
@@ -5,6 +5,7 @@ import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -19,9 +20,13 @@ import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 import com.izettle.metrics.influxdb.data.InfluxDbPoint;
 import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import com.izettle.metrics.influxdb.tags.Transformer;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -321,6 +326,259 @@ public class InfluxDbReporterTest {
             .build(influxDb);
     }
 
+    @Test
+    public void shouldLeaveSenderOpenWhenStopped() throws Exception {
+        reporter.stop();
+
+        verify(influxDb, never()).close();
+    }
+
+    @Test
+    public void shouldCloseSenderWhenStoppedIfAsked() throws Exception {
+        InfluxDbReporter closingReporter = InfluxDbReporter
+            .forRegistry(registry)
+            .closeSenderOnStop(true)
+            .build(influxDb);
+
+        closingReporter.stop();
+
+        verify(influxDb).close();
+    }
+
+    @Test
+    public void shouldReportChangedTagsOfSender() throws Exception {
+        InfluxDbBaseSenderTest.RecordingSender sender = new InfluxDbBaseSenderTest.RecordingSender(false);
+        InfluxDbReporter taggedReporter = InfluxDbReporter
+            .forRegistry(registry)
+            .withTags(Collections.singletonMap("env", "staging"))
+            .build(sender);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(100L);
+
+        taggedReporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(),
+            this.<Meter>map(), this.<Timer>map());
+        sender.setTags(Collections.singletonMap("env", "production"));
+        taggedReporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(),
+            this.<Meter>map(), this.<Timer>map());
+
+        assertThat(sender.writes).hasSize(2);
+        assertThat(sender.writes.get(0)).contains("env=staging");
+        assertThat(sender.writes.get(1)).contains("env=production").doesNotContain("env=staging");
+    }
+
+    @Test
+    public void shouldKeepMetricsAboutItself() throws Exception {
+        MetricRegistry selfRegistry = new MetricRegistry();
+        InfluxDbBaseSenderTest.RecordingSender sender = new InfluxDbBaseSenderTest.RecordingSender(false);
+        InfluxDbReporter selfReporter = InfluxDbReporter
+            .forRegistry(selfRegistry)
+            .selfMetrics("self")
+            .build(sender);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(100L);
+
+        selfReporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(),
+            this.<Meter>map(), this.<Timer>map());
+
+        for (String timer : Arrays.asList("self.cycle", "self.collect", "self.serialize", "self.send",
+            "self.requests")) {
+            assertThat(selfRegistry.timer(timer).getCount()).as(timer).isEqualTo(1);
+        }
+        assertThat(selfRegistry.histogram("self.points").getSnapshot().getMax()).isEqualTo(1);
+        assertThat(selfRegistry.histogram("self.bytes").getSnapshot().getMax()).isGreaterThan(0);
+        assertThat(selfRegistry.meter("self.discarded").getCount()).isEqualTo(0);
+        assertThat(selfRegistry.getGauges()).containsKeys("self.queued", "self.dropped");
+
+        selfReporter.stop();
+        assertThat(selfRegistry.getGauges()).doesNotContainKeys("self.queued", "self.dropped");
+    }
+
+    @Test
+    public void shouldCountFailuresByCause() throws Exception {
+        MetricRegistry selfRegistry = new MetricRegistry();
+        InfluxDbBaseSenderTest.RecordingSender sender = new InfluxDbBaseSenderTest.RecordingSender(false);
+        sender.failWith = new ConnectException("Connection refused");
+        sender.failures = 1;
+        InfluxDbReporter selfReporter = InfluxDbReporter
+            .forRegistry(selfRegistry)
+            .selfMetrics("self")
+            .build(sender);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(100L);
+
+        selfReporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(),
+            this.<Meter>map(), this.<Timer>map());
+
+        assertThat(selfRegistry.meter("self.failures.ConnectException").getCount()).isEqualTo(1);
+        assertThat(selfRegistry.meter("self.discarded").getCount()).isEqualTo(1);
+        assertThat(selfRegistry.timer("self.cycle").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountReportsDiscardedByAsyncSender() throws Exception {
+        MetricRegistry selfRegistry = new MetricRegistry();
+        InfluxDbBaseSenderTest.RecordingSender sender = new InfluxDbBaseSenderTest.RecordingSender(false);
+        sender.failWith = new ConnectException("Connection refused");
+        sender.failures = 1;
+        InfluxDbReporter selfReporter = InfluxDbReporter
+            .forRegistry(selfRegistry)
+            .async(8, OverflowPolicy.DROP_OLDEST, 1, TimeUnit.SECONDS)
+            .selfMetrics("self")
+            .build(sender);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(100L);
+
+        selfReporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(),
+            this.<Meter>map(), this.<Timer>map());
+        // waits for the queued report to be written
+        sender.close();
+
+        assertThat(selfRegistry.meter("self.failures.ConnectException").getCount()).isEqualTo(1);
+        assertThat(selfRegistry.meter("self.discarded").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepReporterMetricsForOtherSenders() {
+        MetricRegistry selfRegistry = new MetricRegistry();
+        InfluxDbReporter selfReporter = InfluxDbReporter
+            .forRegistry(selfRegistry)
+            .selfMetrics("self")
+            .build(influxDb);
+
+        selfReporter.report(this.<Gauge>map(), this.<Counter>map(), this.<Histogram>map(),
+            this.<Meter>map(), this.<Timer>map());
+
+        assertThat(selfRegistry.timer("self.cycle").getCount()).isEqualTo(1);
+        assertThat(selfRegistry.getGauges()).doesNotContainKeys("self.queued", "self.dropped");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectBatchingForSenderWithoutBatches() {
+        InfluxDbReporter
+            .forRegistry(registry)
+            .batching(100, 1024, 1)
+            .build(influxDb);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAsyncForSenderWithoutQueue() {
+        InfluxDbReporter
+            .forRegistry(registry)
+            .async(8, OverflowPolicy.DROP_OLDEST, 1, TimeUnit.SECONDS)
+            .build(influxDb);
+    }
+
+    @Test
+    public void shouldSetRetryPolicyAndCircuitBreakerOnSender() throws Exception {
+        InfluxDbBaseSenderTest.RecordingSender sender = new InfluxDbBaseSenderTest.RecordingSender(false);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 100, 1000, 10, TimeUnit.MILLISECONDS);
+        InfluxDbReporter
+            .forRegistry(registry)
+            .retryPolicy(retryPolicy)
+            .circuitBreaker(5, 30, TimeUnit.SECONDS)
+            .build(sender);
+
+        assertThat(sender.getRetryPolicy()).isSameAs(retryPolicy);
+        assertThat(sender.getCircuitBreaker()).isNotNull();
+        assertThat(sender.getCircuitBreaker().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void shouldSetRetryPolicyOnEveryDestinationOfFanOut() throws Exception {
+        InfluxDbBaseSenderTest.RecordingSender first = new InfluxDbBaseSenderTest.RecordingSender(false);
+        InfluxDbBaseSenderTest.RecordingSender second = new InfluxDbBaseSenderTest.RecordingSender(false);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 100, 1000, 10, TimeUnit.MILLISECONDS);
+        FanOutInfluxDbSender sender = new FanOutInfluxDbSender(
+            "", Arrays.asList(first, second), 4, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+        try {
+            InfluxDbReporter
+                .forRegistry(registry)
+                .retryPolicy(retryPolicy)
+                .circuitBreaker(5, 30, TimeUnit.SECONDS)
+                .build(sender);
+
+            assertThat(first.getRetryPolicy()).isSameAs(retryPolicy);
+            assertThat(second.getRetryPolicy()).isSameAs(retryPolicy);
+            assertThat(first.getCircuitBreaker()).isNotSameAs(second.getCircuitBreaker());
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRetryPolicyForSenderWithoutRetries() {
+        InfluxDbReporter
+            .forRegistry(registry)
+            .retryPolicy(new RetryPolicy(3, 100, 1000, 10, TimeUnit.MILLISECONDS))
+            .build(influxDb);
+    }
+
+    @Test
+    public void shouldCollectInParallelInRegistryOrder() throws Exception {
+        InfluxDbReporter parallelReporter = InfluxDbReporter
+            .forRegistry(registry)
+            .parallelCollection(4, 2)
+            .build(influxDb);
+        SortedMap<String, Counter> counters = new TreeMap<>();
+        for (int i = 0; i < 20; i++) {
+            Counter counter = new Counter();
+            counter.inc(i);
+            counters.put(String.format("counter%02d", i), counter);
+        }
+        Timer timer = new Timer();
+        timer.update(5, TimeUnit.MILLISECONDS);
+
+        try {
+            parallelReporter.report(this.<Gauge>map(), counters, this.<Histogram>map(), this.<Meter>map(),
+                this.map("timer", timer));
+        } finally {
+            parallelReporter.stop();
+        }
+
+        ArgumentCaptor<InfluxDbPoint> captor = ArgumentCaptor.forClass(InfluxDbPoint.class);
+        verify(influxDb, times(21)).appendPoints(captor.capture());
+        List<InfluxDbPoint> points = captor.getAllValues();
+        for (int i = 0; i < 20; i++) {
+            assertThat(points.get(i).getMeasurement()).isEqualTo(String.format("counter%02d", i));
+            assertThat(points.get(i).getFields()).containsEntry("count", (long) i);
+        }
+        assertThat(points.get(20).getMeasurement()).isEqualTo("timer");
+        assertThat(points.get(20).getFields()).containsEntry("count", 1L).containsKey("p99");
+    }
+
+    @Test
+    public void shouldSkipIdleMetricsWhenCollectingInParallel() throws Exception {
+        InfluxDbReporter parallelReporter = InfluxDbReporter
+            .forRegistry(registry)
+            .skipIdleMetrics(true)
+            .parallelCollection(2, 1)
+            .build(influxDb);
+        Counter idle = new Counter();
+        Counter busy = new Counter();
+        SortedMap<String, Counter> counters = new TreeMap<>();
+        counters.put("idle", idle);
+        counters.put("busy", busy);
+
+        try {
+            parallelReporter.report(this.<Gauge>map(), counters, this.<Histogram>map(), this.<Meter>map(),
+                this.<Timer>map());
+            busy.inc();
+            parallelReporter.report(this.<Gauge>map(), counters, this.<Histogram>map(), this.<Meter>map(),
+                this.<Timer>map());
+        } finally {
+            parallelReporter.stop();
+        }
+
+        ArgumentCaptor<InfluxDbPoint> captor = ArgumentCaptor.forClass(InfluxDbPoint.class);
+        verify(influxDb, times(3)).appendPoints(captor.capture());
+        assertThat(captor.getAllValues().get(2).getMeasurement()).isEqualTo("busy");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveCollectionParallelism() {
+        InfluxDbReporter.forRegistry(registry).parallelCollection(0, 256);
+    }
+
     @Test
     public void reportsTimers() throws Exception {
 
@@ -537,6 +795,73 @@ public class InfluxDbReporterTest {
         verify(influxDb, times(1)).appendPoints(ArgumentMatchers.any(InfluxDbPoint.class));
     }
 
+    @Test
+    public void shouldReuseSeriesKeyUntilMetricIsRemoved() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final Counter counter = metricRegistry.counter("counter");
+        final InfluxDbReporter reporter = InfluxDbReporter.forRegistry(metricRegistry).build(influxDb);
+        final ArgumentCaptor<InfluxDbPoint> influxDbPointCaptor = ArgumentCaptor.forClass(InfluxDbPoint.class);
+
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        metricRegistry.remove("counter");
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+
+        verify(influxDb, times(3)).appendPoints(influxDbPointCaptor.capture());
+        List<InfluxDbPoint> points = influxDbPointCaptor.getAllValues();
+        assertThat(points.get(0).getSeriesKey()).isNotNull();
+        assertThat(points.get(1).getSeriesKey()).isSameAs(points.get(0).getSeriesKey());
+        assertThat(points.get(2).getSeriesKey()).isNotSameAs(points.get(0).getSeriesKey());
+        assertThat(points.get(2).getTags()).containsEntry("metricName", "counter");
+        reporter.stop();
+    }
+
+    @Test
+    public void shouldForgetIdleStateOfRemovedMetrics() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final Counter counter = metricRegistry.counter("counter");
+        final InfluxDbReporter reporter = InfluxDbReporter.forRegistry(metricRegistry).skipIdleMetrics(true)
+            .build(influxDb);
+        counter.inc();
+
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        verify(influxDb, times(1)).appendPoints(ArgumentMatchers.any(InfluxDbPoint.class));
+
+        // a metric registered again under the same name is reported as new
+        metricRegistry.remove("counter");
+        final Counter replacement = metricRegistry.counter("counter");
+        replacement.inc();
+        reporter.report(this.<Gauge>map(), this.map("counter", replacement), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+
+        verify(influxDb, times(2)).appendPoints(ArgumentMatchers.any(InfluxDbPoint.class));
+        reporter.stop();
+    }
+
+    @Test
+    public void shouldEvictTagsOfRemovedMetrics() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final Counter counter = metricRegistry.counter("counter");
+        final Transformer transformer = mock(Transformer.class);
+        when(transformer.getTags("counter")).thenReturn(Collections.singletonMap("metricName", "counter"));
+        final InfluxDbReporter reporter = InfluxDbReporter.forRegistry(metricRegistry).tagsTransformer(transformer)
+            .build(influxDb);
+
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        metricRegistry.remove("counter");
+
+        verify(transformer).evict("counter");
+        reporter.stop();
+    }
+
+    @Test
+    public void shouldEnableIntegerFieldsOnSender() {
+        verify(influxDb, never()).setIntegerFields(true);
+
+        InfluxDbReporter.forRegistry(registry).integerFields(true).build(influxDb);
+        verify(influxDb).setIntegerFields(true);
+    }
+
     @Test
     public void shouldCatchExceptions() throws Exception {
         doThrow(ConnectException.class).when(influxDb).writeData();
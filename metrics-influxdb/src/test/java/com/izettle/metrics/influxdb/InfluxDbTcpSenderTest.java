@@ -1,10 +1,20 @@
 package com.izettle.metrics.influxdb;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -35,10 +45,10 @@ public class InfluxDbTcpSenderTest {
 
     @Test
     public void shouldNotThrowException() throws Exception {
-        ServerSocket server = new ServerSocket(10080);
+        ServerSocket server = new ServerSocket(10083);
         InfluxDbTcpSender influxDbTcpSender = new InfluxDbTcpSender(
             "0.0.0.0",
-            10080,
+            10083,
             1000,
             "test",
             ""
@@ -46,4 +56,98 @@ public class InfluxDbTcpSenderTest {
         assertThat(influxDbTcpSender.writeData(new byte[0]) == 0);
         server.close();
     }
+
+    @Test
+    public void shouldWriteAllBytesOfLargeReport() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ServerSocket server = new ServerSocket(10088);
+             InfluxDbTcpSender influxDbTcpSender = new InfluxDbTcpSender("localhost", 10088, 1000, "test", "")) {
+            final byte[] lines = new byte[1024 * 1024];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = (byte) (i % 100 == 99 ? '\n' : 'a' + i % 26);
+            }
+            Future<byte[]> received = executor.submit(() -> {
+                try (Socket socket = server.accept()) {
+                    return read(socket.getInputStream(), lines.length);
+                }
+            });
+
+            influxDbTcpSender.writeData(lines);
+
+            assertThat(Arrays.equals(received.get(5, TimeUnit.SECONDS), lines)).isTrue();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFailFastAndReconnectInBackgroundWhenConnectionIsLost() throws Exception {
+        InfluxDbTcpSender influxDbTcpSender = new InfluxDbTcpSender("localhost", 10089, 1000, "test", "");
+        try {
+            ServerSocket server = listen(10089);
+            influxDbTcpSender.writeData("a value=1\n".getBytes());
+            server.accept().close();
+            server.close();
+
+            // the first writes may still be buffered before the connection is known to be lost
+            boolean lost = false;
+            for (int i = 0; i < 100 && !lost; i++) {
+                try {
+                    influxDbTcpSender.writeData("a value=1\n".getBytes());
+                    Thread.sleep(10);
+                } catch (IOException e) {
+                    lost = true;
+                }
+            }
+            assertThat(lost).isTrue();
+
+            try {
+                influxDbTcpSender.writeData("a value=1\n".getBytes());
+                fail("Expected the write to fail while reconnecting");
+            } catch (ConnectException e) {
+                assertThat(e.getMessage()).contains("reconnecting");
+            }
+
+            try (ServerSocket restarted = listen(10089)) {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (true) {
+                    try {
+                        influxDbTcpSender.writeData("a value=1\n".getBytes());
+                        break;
+                    } catch (ConnectException e) {
+                        if (System.nanoTime() > deadline) {
+                            throw e;
+                        }
+                        Thread.sleep(20);
+                    }
+                }
+            }
+        } finally {
+            influxDbTcpSender.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotWriteOnceClosed() throws Exception {
+        InfluxDbTcpSender influxDbTcpSender = new InfluxDbTcpSender("localhost", 10089, 1000, "test", "");
+        influxDbTcpSender.close();
+        influxDbTcpSender.writeData(new byte[0]);
+    }
+
+    private static ServerSocket listen(int port) throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress("localhost", port));
+        return server;
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        byte[] chunk = new byte[8192];
+        int read;
+        while (out.size() < length && (read = in.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
 }
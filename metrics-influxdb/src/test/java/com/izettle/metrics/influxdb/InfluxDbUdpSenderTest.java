@@ -2,7 +2,14 @@ package com.izettle.metrics.influxdb;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.Test;
 
@@ -30,4 +37,65 @@ public class InfluxDbUdpSenderTest {
         );
         assertThat(influxDbUdpSender.writeData(new byte[0]) == 0);
     }
+
+    @Test
+    public void shouldSplitLinesIntoDatagrams() throws Exception {
+        try (DatagramSocket server = new DatagramSocket(10087, InetAddress.getByName("localhost"))) {
+            server.setSoTimeout(5000);
+            InfluxDbUdpSender influxDbUdpSender = new InfluxDbUdpSender(
+                "localhost",
+                10087,
+                1000,
+                "test",
+                "",
+                200
+            );
+            for (int i = 0; i < 50; i++) {
+                influxDbUdpSender.appendPoints(new InfluxDbPoint(
+                    "measurement" + i, 1000L, Collections.<String, Object>singletonMap("value", i)));
+            }
+            influxDbUdpSender.writeData();
+
+            int lines = 0;
+            byte[] received = new byte[2048];
+            while (lines < 50) {
+                DatagramPacket packet = new DatagramPacket(received, received.length);
+                server.receive(packet);
+                assertThat(packet.getLength()).isLessThanOrEqualTo(200);
+                assertThat(received[packet.getLength() - 1]).isEqualTo((byte) '\n');
+                lines += new String(received, 0, packet.getLength(), StandardCharsets.UTF_8).split("\n").length;
+            }
+            assertThat(lines).isEqualTo(50);
+            assertThat(influxDbUdpSender.getOversizedLines()).isEqualTo(0);
+            assertThat(influxDbUdpSender.getDroppedLines()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void shouldCountOversizedAndDroppedLines() throws Exception {
+        InfluxDbUdpSender influxDbUdpSender = new InfluxDbUdpSender(
+            "localhost",
+            10080,
+            1000,
+            "test",
+            "",
+            100
+        );
+        byte[] oversized = new byte[150];
+        Arrays.fill(oversized, (byte) 'a');
+        oversized[oversized.length - 1] = '\n';
+        influxDbUdpSender.writeData(oversized);
+
+        byte[] tooLarge = new byte[InfluxDbUdpSender.MAX_UDP_PAYLOAD_BYTES + 1];
+        Arrays.fill(tooLarge, (byte) 'a');
+        influxDbUdpSender.writeData(tooLarge);
+
+        assertThat(influxDbUdpSender.getOversizedLines()).isEqualTo(2);
+        assertThat(influxDbUdpSender.getDroppedLines()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDatagramsLargerThanUdpAllows() {
+        new InfluxDbUdpSender("localhost", 10080, 1000, "test", "", InfluxDbUdpSender.MAX_UDP_PAYLOAD_BYTES + 1);
+    }
 }
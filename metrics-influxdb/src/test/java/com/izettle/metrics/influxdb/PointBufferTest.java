@@ -0,0 +1,155 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PointBufferTest {
+
+    private final PointBuffer buffer = new PointBuffer();
+
+    @Test
+    public void shouldTakePointsInTheOrderTheyWereAppended() {
+        List<InfluxDbPoint> appended = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            InfluxDbPoint point = point(i);
+            appended.add(point);
+            buffer.add(point);
+        }
+        assertThat(buffer.isEmpty()).isFalse();
+
+        PointBuffer.Segment segment = buffer.take();
+
+        assertThat(segment.points).containsExactlyElementsOf(appended);
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(buffer.take()).isNull();
+    }
+
+    @Test
+    public void shouldStartNewSegmentAfterTake() {
+        buffer.add(point(1));
+        buffer.add(point(2));
+        PointBuffer.Segment first = buffer.take();
+        InfluxDbPoint third = point(3);
+        buffer.add(third);
+
+        PointBuffer.Segment second = buffer.take();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(first.points).hasSize(2);
+        assertThat(second.points).containsExactly(third);
+    }
+
+    @Test
+    public void shouldDiscardOnlyPointsOfCallingThread() throws Exception {
+        InfluxDbPoint other = point(2);
+        buffer.add(point(1));
+        runInOtherThread(() -> buffer.add(other));
+        buffer.add(point(3));
+
+        buffer.discard();
+
+        assertThat(buffer.isEmpty()).isFalse();
+        assertThat(buffer.take().points).containsExactly(other);
+    }
+
+    @Test
+    public void shouldReuseRecycledSegments() {
+        buffer.add(point(1));
+        PointBuffer.Segment segment = buffer.take();
+        buffer.recycle(segment);
+
+        buffer.add(point(2));
+
+        PointBuffer.Segment reused = buffer.take();
+        assertThat(reused).isSameAs(segment);
+        assertThat(reused.points).hasSize(1);
+    }
+
+    @Test
+    public void shouldTakePointsAppendedByOtherThreads() throws Exception {
+        InfluxDbPoint other = point(1);
+        runInOtherThread(() -> buffer.add(other));
+
+        assertThat(buffer.isEmpty()).isFalse();
+        assertThat(buffer.take().points).containsExactly(other);
+    }
+
+    @Test
+    public void shouldNotLosePointsOfConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int pointsPerProducer = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        Set<InfluxDbPoint> taken = new HashSet<>();
+        try {
+            List<Future<?>> appending = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                appending.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < pointsPerProducer; i++) {
+                        buffer.add(point(producer * pointsPerProducer + i));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            // the writer takes the points while they are appended
+            for (Future<?> producer : appending) {
+                while (!producer.isDone()) {
+                    take(taken);
+                }
+                producer.get(10, TimeUnit.SECONDS);
+            }
+            take(taken);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(taken).hasSize(producers * pointsPerProducer);
+    }
+
+    @Test
+    public void shouldDropAllPointsWhenCleared() throws Exception {
+        buffer.add(point(1));
+        runInOtherThread(() -> buffer.add(point(2)));
+
+        buffer.clear();
+
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(buffer.take()).isNull();
+    }
+
+    private void take(Set<InfluxDbPoint> taken) {
+        PointBuffer.Segment segment = buffer.take();
+        if (segment != null) {
+            taken.addAll(segment.points);
+            buffer.recycle(segment);
+        }
+    }
+
+    private static void runInOtherThread(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(task).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InfluxDbPoint point(int i) {
+        return new InfluxDbPoint("measurement" + i, 1000L, Collections.<String, Object>singletonMap("value", 1L));
+    }
+}
@@ -0,0 +1,57 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void shouldDoubleTheBackoffCeilingUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 400, 10000, TimeUnit.MILLISECONDS);
+        long first = TimeUnit.MILLISECONDS.toNanos(100);
+        long max = TimeUnit.MILLISECONDS.toNanos(400);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.backoffNanos(1)).isBetween(0L, first);
+            assertThat(policy.backoffNanos(2)).isBetween(0L, 2 * first);
+            assertThat(policy.backoffNanos(8)).isBetween(0L, max);
+            assertThat(policy.backoffNanos(Integer.MAX_VALUE)).isBetween(0L, max);
+        }
+    }
+
+    @Test
+    public void shouldNotWaitWithoutBackoff() {
+        assertThat(RetryPolicy.NONE.getMaxAttempts()).isEqualTo(1);
+        assertThat(RetryPolicy.NONE.backoffNanos(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRetryFailuresToReachInfluxDb() {
+        assertThat(RetryPolicy.isRetryable(new IOException("Connection refused"))).isTrue();
+        assertThat(RetryPolicy.isRetryable(new SocketTimeoutException("Read timed out"))).isTrue();
+        assertThat(RetryPolicy.isRetryable(new InfluxDbHttpException(503, "Unavailable"))).isTrue();
+        assertThat(RetryPolicy.isRetryable(new InfluxDbHttpException(408, "Request timeout"))).isTrue();
+        assertThat(RetryPolicy.isRetryable(new InfluxDbHttpException(429, "Too many requests"))).isTrue();
+    }
+
+    @Test
+    public void shouldNotRetryRejectedWritesOrErrors() {
+        assertThat(RetryPolicy.isRetryable(new InfluxDbHttpException(400, "Bad request"))).isFalse();
+        assertThat(RetryPolicy.isRetryable(new InfluxDbHttpException(404, "Database not found"))).isFalse();
+        assertThat(RetryPolicy.isRetryable(new IllegalStateException("Bug"))).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveAttempts() {
+        new RetryPolicy(0, 100, 400, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMaxBackoffBelowInitialBackoff() {
+        new RetryPolicy(3, 400, 100, 10, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,96 @@
+package com.izettle.metrics.influxdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.izettle.metrics.influxdb.InfluxDbBaseSenderTest.RecordingSender;
+import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class ShardingInfluxDbSenderTest {
+
+    private final RecordingSender first = new RecordingSender(false);
+    private final RecordingSender second = new RecordingSender(false);
+
+    private ShardingInfluxDbSender sender() {
+        Map<String, InfluxDbSender> shards = new LinkedHashMap<>();
+        shards.put("first:8086", first);
+        shards.put("second:8086", second);
+        return new ShardingInfluxDbSender(shards);
+    }
+
+    @Test
+    public void shouldWriteEachSeriesToOneShard() throws Exception {
+        ShardingInfluxDbSender sender = sender();
+        for (int i = 0; i < 100; i++) {
+            sender.appendPoints(point("measurement" + i, Collections.singletonMap("host", "a")));
+        }
+
+        sender.writeData();
+
+        int lines = 0;
+        for (String write : first.writes) {
+            lines += write.split("\n").length;
+        }
+        for (String write : second.writes) {
+            lines += write.split("\n").length;
+        }
+        assertThat(lines).isEqualTo(100);
+        assertThat(first.writes).hasSize(1);
+        assertThat(second.writes).hasSize(1);
+    }
+
+    @Test
+    public void shouldRouteSeriesByMeasurementAndTagsInAnyOrder() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", "a");
+        tags.put("region", "eu");
+        long hash = ShardingInfluxDbSender.seriesHash(point("measurement", tags));
+
+        assertThat(ShardingInfluxDbSender.seriesHash(point("measurement", new TreeMap<>(tags)))).isEqualTo(hash);
+        assertThat(ShardingInfluxDbSender.seriesHash(point("measurement", Collections.singletonMap("host", "a"))))
+            .isNotEqualTo(hash);
+        assertThat(ShardingInfluxDbSender.seriesHash(point("measurement2", tags))).isNotEqualTo(hash);
+    }
+
+    @Test
+    public void shouldWriteShardsConcurrently() throws Exception {
+        ShardingInfluxDbSender sender = sender();
+        CountDownLatch allInFlight = new CountDownLatch(2);
+        first.allInFlight = allInFlight;
+        second.allInFlight = allInFlight;
+        for (int i = 0; i < 100; i++) {
+            sender.appendPoints(point("measurement" + i, Collections.<String, String>emptyMap()));
+        }
+
+        try {
+            sender.writeData();
+        } finally {
+            sender.close();
+        }
+
+        assertThat(first.writes).hasSize(1);
+        assertThat(second.writes).hasSize(1);
+    }
+
+    @Test
+    public void shouldOnlyWriteShardsHoldingPoints() throws Exception {
+        ShardingInfluxDbSender sender = sender();
+        sender.appendPoints(point("measurement", Collections.<String, String>emptyMap()));
+
+        sender.writeData();
+
+        assertThat(first.writes.size() + second.writes.size()).isEqualTo(1);
+        sender.flush();
+        assertThat(sender.hasSeriesData()).isFalse();
+    }
+
+    private static InfluxDbPoint point(String measurement, Map<String, String> tags) {
+        return new InfluxDbPoint(measurement, tags, 1000L, Collections.<String, Object>singletonMap("value", 1L));
+    }
+}
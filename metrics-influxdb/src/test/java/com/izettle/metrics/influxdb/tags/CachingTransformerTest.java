@@ -0,0 +1,63 @@
+package com.izettle.metrics.influxdb.tags;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class CachingTransformerTest {
+
+    @Test
+    public void shouldComputeTagsOncePerMetricName() {
+        Transformer delegate = mock(Transformer.class);
+        when(delegate.getTags("a.B.c")).thenReturn(new HashMap<>(new ClassBasedTransformer().getTags("a.B.c")));
+        CachingTransformer transformer = new CachingTransformer(delegate);
+
+        Map<String, String> tags = transformer.getTags("a.B.c");
+
+        assertThat(transformer.getTags("a.B.c")).isSameAs(tags);
+        assertThat(tags).containsEntry("package", "a").containsEntry("className", "B").containsEntry("method", "c");
+        verify(delegate, times(1)).getTags("a.B.c");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldReturnUnmodifiableTags() {
+        new CachingTransformer(new ClassBasedTransformer()).getTags("a.B.c").put("key", "value");
+    }
+
+    @Test
+    public void shouldComputeTagsAgainOnceEvicted() {
+        Transformer delegate = mock(Transformer.class);
+        when(delegate.getTags("a.B.c")).thenReturn(new HashMap<String, String>());
+        CachingTransformer transformer = new CachingTransformer(delegate);
+
+        transformer.getTags("a.B.c");
+        transformer.evict("a.B.c");
+        transformer.getTags("a.B.c");
+
+        assertThat(transformer.size()).isEqualTo(1);
+        verify(delegate, times(2)).getTags("a.B.c");
+        verify(delegate).evict("a.B.c");
+    }
+
+    @Test
+    public void shouldClearWhenFull() {
+        CachingTransformer transformer = new CachingTransformer(new ClassBasedTransformer(), 2);
+
+        transformer.getTags("a.B.c");
+        transformer.getTags("a.B.d");
+        transformer.getTags("a.B.e");
+
+        assertThat(transformer.size()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaxSize() {
+        new CachingTransformer(new ClassBasedTransformer(), 0);
+    }
+}
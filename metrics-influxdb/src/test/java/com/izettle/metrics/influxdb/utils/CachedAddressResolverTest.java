@@ -0,0 +1,51 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CachedAddressResolverTest {
+
+    private final AtomicInteger refreshes = new AtomicInteger();
+    private final Executor countingExecutor = command -> {
+        refreshes.incrementAndGet();
+        command.run();
+    };
+
+    @Test(expected = UnknownHostException.class)
+    public void shouldThrowUnknownHostExceptionOnFirstResolve() throws Exception {
+        new CachedAddressResolver("testtestasdfg", 10080).resolve();
+    }
+
+    @Test
+    public void shouldResolveOnceWithinTtl() throws Exception {
+        CachedAddressResolver resolver =
+            new CachedAddressResolver("localhost", 8086, TimeUnit.MINUTES.toMillis(1), countingExecutor);
+
+        InetSocketAddress address = resolver.resolve();
+        assertThat(address.getPort()).isEqualTo(8086);
+        assertThat(address.isUnresolved()).isFalse();
+        assertThat(resolver.resolve()).isSameAs(address);
+        assertThat(refreshes.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRefreshInBackgroundOnceTtlHasPassed() throws Exception {
+        CachedAddressResolver resolver = new CachedAddressResolver("localhost", 8086, 0, countingExecutor);
+
+        InetSocketAddress address = resolver.resolve();
+        assertThat(resolver.resolve()).isEqualTo(address);
+        assertThat(resolver.resolve()).isEqualTo(address);
+        assertThat(refreshes.get()).isEqualTo(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeTtl() {
+        new CachedAddressResolver("localhost", 8086, -1);
+    }
+}
@@ -0,0 +1,52 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void shouldSpreadHashesEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a:8086", "b:8086", "c:8086", "d:8086"), 160);
+        int[] counts = new int[4];
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.node(ConsistentHashRing.mix(("series" + i).hashCode()))]++;
+        }
+        for (int count : counts) {
+            assertThat(count).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10);
+        }
+    }
+
+    @Test
+    public void shouldOnlyMoveHashesToAddedNode() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a:8086", "b:8086", "c:8086"), 160);
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a:8086", "b:8086", "c:8086", "d:8086"), 160);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            long hash = ConsistentHashRing.mix(("series" + i).hashCode());
+            if (before.node(hash) != after.node(hash)) {
+                assertThat(after.node(hash)).isEqualTo(3);
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10);
+    }
+
+    @Test
+    public void shouldMapEveryHashToSingleNode() {
+        ConsistentHashRing ring = new ConsistentHashRing(Collections.singletonList("a:8086"), 1);
+        assertThat(ring.node(Long.MIN_VALUE)).isEqualTo(0);
+        assertThat(ring.node(0)).isEqualTo(0);
+        assertThat(ring.node(Long.MAX_VALUE)).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNoNodes() {
+        new ConsistentHashRing(Collections.<String>emptyList(), 160);
+    }
+}
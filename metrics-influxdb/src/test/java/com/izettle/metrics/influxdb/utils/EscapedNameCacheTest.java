@@ -0,0 +1,32 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class EscapedNameCacheTest {
+
+    @Test
+    public void shouldCacheEscapedBytes() {
+        EscapedNameCache cache = new EscapedNameCache(LineProtocolEscaper::escapeKey);
+        byte[] escaped = cache.get("tag key");
+
+        assertThat(new String(escaped, StandardCharsets.UTF_8)).isEqualTo("tag\\ key");
+        assertThat(cache.get("tag key")).isSameAs(escaped);
+    }
+
+    @Test
+    public void shouldNotGrowBeyondMaxSize() {
+        EscapedNameCache cache = new EscapedNameCache(LineProtocolEscaper::escapeKey, 3);
+        for (int i = 0; i < 10; i++) {
+            assertThat(new String(cache.get("id " + i), StandardCharsets.UTF_8)).isEqualTo("id\\ " + i);
+            assertThat(cache.size()).isLessThanOrEqualTo(3);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaxSize() {
+        new EscapedNameCache(LineProtocolEscaper::escapeKey, 0);
+    }
+}
@@ -0,0 +1,57 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+public class GzipCompressorTest {
+
+    @Test
+    public void shouldCompressToGzip() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            lines.append("measurement,host=server01,env=production count=").append(i).append("i 1500000000\n");
+        }
+        byte[] src = ("prefix" + lines).getBytes("UTF-8");
+        GzipCompressor compressor = new GzipCompressor(1);
+
+        LineProtocolBuffer compressed = compressor.compress(src, 6, src.length - 6);
+
+        assertThat(compressed.size()).isLessThan((src.length - 6) / 5);
+        assertThat(gunzip(compressed.toByteArray())).isEqualTo(Arrays.copyOfRange(src, 6, src.length));
+    }
+
+    @Test
+    public void shouldReuseCompressor() throws IOException {
+        GzipCompressor compressor = new GzipCompressor(9);
+        Random random = new Random(1);
+        for (int size : new int[] {0, 1, 100, 100000, 10}) {
+            // random bytes do not compress, so the output is larger than the input
+            byte[] src = new byte[size];
+            random.nextBytes(src);
+            assertThat(gunzip(compressor.compress(src, 0, src.length).toByteArray())).isEqualTo(src);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidLevel() {
+        new GzipCompressor(10);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
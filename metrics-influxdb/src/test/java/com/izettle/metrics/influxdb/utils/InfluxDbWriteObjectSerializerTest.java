@@ -5,10 +5,13 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.izettle.metrics.influxdb.data.InfluxDbPoint;
+import com.izettle.metrics.influxdb.data.InfluxDbSeriesKey;
 import com.izettle.metrics.influxdb.data.InfluxDbWriteObject;
+import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -84,6 +87,30 @@ public class InfluxDbWriteObjectSerializerTest {
         assertThat(lineString).isEqualTo("xxx,tag1Key=tag1Value bb.cc2=\"222\",bb.cc1=\"111\" 456000\n");
     }
 
+    @Test
+    public void groupedLinesShouldBeKeyedByTimeAndTags() {
+        Map<String, String> tags1 = new HashMap<String, String>();
+        tags1.put("tag1Key", "tag1Value");
+        Map<String, String> tags2 = new HashMap<String, String>();
+        tags2.put("tag1Key", "tag2Value");
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("count", 1L);
+        Set<InfluxDbPoint> points = new LinkedHashSet<InfluxDbPoint>();
+        points.add(new InfluxDbPoint("aa.bb", tags1, 456l, fields));
+        points.add(new InfluxDbPoint("aa.bb", tags1, 789l, fields));
+        points.add(new InfluxDbPoint("aa.cc", tags1, 456l, fields));
+        points.add(new InfluxDbPoint("aa.bb", tags2, 456l, fields));
+        InfluxDbWriteObject influxDbWriteObject = mock(InfluxDbWriteObject.class);
+        when(influxDbWriteObject.getPoints()).thenReturn(points);
+        when(influxDbWriteObject.getPrecision()).thenReturn(TimeUnit.MICROSECONDS);
+        InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer("");
+        String lineString = influxDbWriteObjectSerializer.getGroupedLineProtocolString(influxDbWriteObject, "xxx");
+        assertThat(lineString).isEqualTo(
+            "xxx,tag1Key=tag1Value cc.count=1.0,bb.count=1.0 456000\n"
+                + "xxx,tag1Key=tag1Value bb.count=1.0 789000\n"
+                + "xxx,tag1Key=tag2Value bb.count=1.0 456000\n");
+    }
+
     @Test
     public void undottedMeasurementShouldFallback() {
         Map<String, String> tags = new HashMap<String, String>();
@@ -141,6 +168,41 @@ public class InfluxDbWriteObjectSerializerTest {
         assertThat(lineString).isEqualTo("measurement1 field1Key=\"field1Value\",field5Key=0.432 456000\n");
     }
 
+    @Test
+    public void shouldSerializeNumbersInPlainNotation() {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        fields.put("long", 1234L);
+        fields.put("int", -7);
+        fields.put("double", 1e-5);
+        fields.put("large", 1e20);
+        fields.put("decimal", new BigDecimal("1.50"));
+        InfluxDbWriteObject influxDbWriteObject = new InfluxDbWriteObject("test-db", TimeUnit.MICROSECONDS);
+        influxDbWriteObject.getPoints().add(new InfluxDbPoint("measurement1", 456l, fields));
+
+        InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer("");
+        String lineString = influxDbWriteObjectSerializer.getLineProtocolString(influxDbWriteObject);
+
+        assertThat(lineString).isEqualTo(
+            "measurement1 long=1234.0,int=-7.0,double=0.00001,large=100000000000000000000.0,decimal=1.5 456000\n");
+    }
+
+    @Test
+    public void shouldSerializeIntegralNumbersAsIntegers() {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        fields.put("long", 1234L);
+        fields.put("int", -7);
+        fields.put("double", 2.0);
+        fields.put("decimal", new BigDecimal("1.50"));
+        InfluxDbWriteObject influxDbWriteObject = new InfluxDbWriteObject("test-db", TimeUnit.MICROSECONDS);
+        influxDbWriteObject.getPoints().add(new InfluxDbPoint("measurement1", 456l, fields));
+
+        InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer("");
+        influxDbWriteObjectSerializer.setIntegerFields(true);
+        String lineString = influxDbWriteObjectSerializer.getLineProtocolString(influxDbWriteObject);
+
+        assertThat(lineString).isEqualTo("measurement1 long=1234i,int=-7i,double=2.0,decimal=1.5 456000\n");
+    }
+
     @Test
     public void shouldEscapeKeys() {
         Map<String, String> tags = new LinkedHashMap<String, String>();
@@ -160,6 +222,41 @@ public class InfluxDbWriteObjectSerializerTest {
                 "my\\ measurement\\,1,tag1\\ Key=tag1\\ Value,tag1\\,Key=tag1\\,Value,tag1\\=Key=tag1\\=Value field1\\ Key=\"field1Value\" 456000\n");
     }
 
+    @Test
+    public void shouldEscapeQuotesInStringFields() {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        fields.put("field1Key", "say \"hi\"");
+        InfluxDbWriteObject influxDbWriteObject = new InfluxDbWriteObject("test-db", TimeUnit.MICROSECONDS);
+        influxDbWriteObject.getPoints().add(new InfluxDbPoint("measurement1", 456l, fields));
+
+        InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer("");
+        String lineString = influxDbWriteObjectSerializer.getLineProtocolString(influxDbWriteObject);
+
+        assertThat(lineString).isEqualTo("measurement1 field1Key=\"say \\\"hi\\\"\" 456000\n");
+    }
+
+    @Test
+    public void shouldSerializeSeriesKeyOncePerSerializer() {
+        Map<String, String> tags = new HashMap<String, String>();
+        tags.put("tag2 Key", "tag2Value");
+        tags.put("tag1Key", "tag1Value");
+        InfluxDbSeriesKey seriesKey = new InfluxDbSeriesKey("my measurement", tags);
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("count", 1L);
+        InfluxDbWriteObject influxDbWriteObject = new InfluxDbWriteObject("test-db", TimeUnit.MICROSECONDS);
+        influxDbWriteObject.getPoints().add(new InfluxDbPoint(seriesKey, 456l, fields));
+
+        InfluxDbWriteObjectSerializer influxDbWriteObjectSerializer = new InfluxDbWriteObjectSerializer("prefix.");
+        String lineString = influxDbWriteObjectSerializer.getLineProtocolString(influxDbWriteObject);
+        byte[] encoded = seriesKey.getEncoded(influxDbWriteObjectSerializer);
+
+        assertThat(lineString)
+            .isEqualTo("prefix.my\\ measurement,tag1Key=tag1Value,tag2\\ Key=tag2Value count=1.0 456000\n");
+        assertThat(influxDbWriteObjectSerializer.getLineProtocolString(influxDbWriteObject)).isEqualTo(lineString);
+        assertThat(seriesKey.getEncoded(influxDbWriteObjectSerializer)).isSameAs(encoded);
+        assertThat(seriesKey.getEncoded(new InfluxDbWriteObjectSerializer(""))).isNull();
+    }
+
     @Test
     public void shouldEscapeMeasurement() {
         Map<String, String> tags = new HashMap<String, String>();
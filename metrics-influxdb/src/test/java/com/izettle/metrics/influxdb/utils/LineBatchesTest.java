@@ -0,0 +1,72 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LineBatchesTest {
+
+    private final LineBatches batches = new LineBatches();
+
+    @Test
+    public void shouldSplitByLines() {
+        assertThat(split("a\nb\nc\nd\ne\n", 2, 100)).containsExactly("a\nb\n", "c\nd\n", "e\n");
+    }
+
+    @Test
+    public void shouldSplitByBytes() {
+        assertThat(split("aa\nbb\ncc\n", 100, 6)).containsExactly("aa\nbb\n", "cc\n");
+        assertThat(split("aa\nbb\ncc\n", 100, 5)).containsExactly("aa\n", "bb\n", "cc\n");
+        assertThat(batches.oversized()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldKeepOversizedLineInBatchOfItsOwn() {
+        assertThat(split("a\nbbbbbb\nc\n", 100, 4)).containsExactly("a\n", "bbbbbb\n", "c\n");
+        assertThat(batches.oversized()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepLastLineWithoutNewline() {
+        assertThat(split("a\nb\nc", 2, 100)).containsExactly("a\nb\n", "c");
+    }
+
+    @Test
+    public void shouldFindNoBatchesInEmptyInput() {
+        assertThat(split("", 2, 100)).isEmpty();
+    }
+
+    @Test
+    public void shouldSplitSlice() {
+        byte[] bytes = "xxa\nb\nc\nyy".getBytes(StandardCharsets.UTF_8);
+        batches.split(bytes, 2, 6, 2, 100);
+        assertThat(batches.count()).isEqualTo(2);
+        assertThat(batches.offset(0)).isEqualTo(2);
+        assertThat(batches.length(0)).isEqualTo(4);
+        assertThat(batches.offset(1)).isEqualTo(6);
+        assertThat(batches.length(1)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReuseArraysForManyBatches() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append(i).append('\n');
+        }
+        assertThat(split(lines.toString(), 1, 100)).hasSize(100);
+        assertThat(split("a\n", 1, 100)).containsExactly("a\n");
+    }
+
+    private List<String> split(String lines, int maxLines, int maxBytes) {
+        byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+        batches.split(bytes, 0, bytes.length, maxLines, maxBytes);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < batches.count(); i++) {
+            result.add(new String(bytes, batches.offset(i), batches.length(i), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class LineProtocolBufferTest {
+
+    @Test
+    public void shouldEncodeStringsAsUtf8() {
+        String text = "ascii åäö €uro 😀 lone\uD800surrogate";
+        LineProtocolBuffer buffer = new LineProtocolBuffer(4);
+        buffer.append(text);
+
+        assertThat(buffer.toByteArray()).isEqualTo(text.getBytes(StandardCharsets.UTF_8));
+        assertThat(buffer.toString()).isEqualTo(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldAppendLongsAsDecimal() {
+        long[] values = {0, 7, -7, 10, 99, 100, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE, -Long.MAX_VALUE};
+        for (long value : values) {
+            LineProtocolBuffer buffer = new LineProtocolBuffer(0);
+            buffer.append(value);
+            assertThat(buffer.toString()).isEqualTo(Long.toString(value));
+        }
+    }
+
+    @Test
+    public void shouldKeepBackingArrayWhenReset() {
+        LineProtocolBuffer buffer = new LineProtocolBuffer(2);
+        buffer.append("measurement").append(',').append("tag=value").append(' ').append(1L);
+        byte[] grown = buffer.array();
+        assertThat(buffer.toString()).isEqualTo("measurement,tag=value 1");
+
+        buffer.reset();
+        assertThat(buffer.size()).isEqualTo(0);
+        buffer.append("measurement");
+        assertThat(buffer.array()).isSameAs(grown);
+        assertThat(buffer.toString()).isEqualTo("measurement");
+        assertThat(buffer.toByteBuffer().remaining()).isEqualTo(buffer.size());
+    }
+}
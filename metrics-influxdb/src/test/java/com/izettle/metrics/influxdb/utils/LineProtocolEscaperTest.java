@@ -0,0 +1,32 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class LineProtocolEscaperTest {
+
+    @Test
+    public void shouldReturnSameInstanceWhenNothingToEscape() {
+        String name = "jvm.memory.heap.used";
+        assertThat(LineProtocolEscaper.escapeMeasurement(name)).isSameAs(name);
+        assertThat(LineProtocolEscaper.escapeKey(name)).isSameAs(name);
+        assertThat(LineProtocolEscaper.escapeStringField(name)).isSameAs(name);
+    }
+
+    @Test
+    public void shouldEscapeMeasurement() {
+        assertThat(LineProtocolEscaper.escapeMeasurement("my measurement,1=1")).isEqualTo("my\\ measurement\\,1=1");
+    }
+
+    @Test
+    public void shouldEscapeKey() {
+        assertThat(LineProtocolEscaper.escapeKey("a b,c=d")).isEqualTo("a\\ b\\,c\\=d");
+        assertThat(LineProtocolEscaper.escapeKey(" ")).isEqualTo("\\ ");
+    }
+
+    @Test
+    public void shouldEscapeStringField() {
+        assertThat(LineProtocolEscaper.escapeStringField("say \"hi\"")).isEqualTo("say \\\"hi\\\"");
+    }
+}
@@ -0,0 +1,119 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class MeasurementMatcherTest {
+
+    @Test
+    public void shouldMapByFirstMatchingPatternInOrder() {
+        Map<String, Pattern> mappings = new LinkedHashMap<>();
+        mappings.put("payments", Pattern.compile(".*\\.payments\\..*"));
+        mappings.put("resources", Pattern.compile(".*\\.resources?\\..*"));
+        MeasurementMatcher matcher = new MeasurementMatcher(mappings);
+
+        assertThat(matcher.getPatternCount()).isEqualTo(1);
+        assertThat(matcher.match("com.example.resources.payments.Resource.get")).isEqualTo("payments");
+        assertThat(matcher.match("com.example.resources.Resource.get")).isEqualTo("resources");
+        assertThat(matcher.match("com.example.Other.get")).isNull();
+    }
+
+    @Test
+    public void shouldMatchWholeNames() {
+        MeasurementMatcher matcher = new MeasurementMatcher(
+            Collections.singletonMap("jvm", Pattern.compile("^jvm$")));
+
+        assertThat(matcher.match("jvm")).isEqualTo("jvm");
+        assertThat(matcher.match("jvm.gc")).isNull();
+    }
+
+    @Test
+    public void shouldNotBeConfusedByGroupsOfThePatterns() {
+        Map<String, Pattern> mappings = new LinkedHashMap<>();
+        mappings.put("health", Pattern.compile(".*\\.health(\\..*)?$"));
+        mappings.put("dao", Pattern.compile(".*\\.(jdbi|dao)\\..*"));
+        mappings.put("jobs", Pattern.compile("(?<job>.*\\..*Job)$"));
+        MeasurementMatcher matcher = new MeasurementMatcher(mappings);
+
+        assertThat(matcher.getPatternCount()).isEqualTo(1);
+        assertThat(matcher.match("app.health.db")).isEqualTo("health");
+        assertThat(matcher.match("app.dao.Users.find")).isEqualTo("dao");
+        assertThat(matcher.match("app.CleanupJob")).isEqualTo("jobs");
+    }
+
+    @Test
+    public void shouldKeepInlineFlagsToTheirPattern() {
+        Map<String, Pattern> mappings = new LinkedHashMap<>();
+        mappings.put("upper", Pattern.compile("(?i)abc"));
+        mappings.put("lower", Pattern.compile("def"));
+        MeasurementMatcher matcher = new MeasurementMatcher(mappings);
+
+        assertThat(matcher.match("ABC")).isEqualTo("upper");
+        assertThat(matcher.match("DEF")).isNull();
+    }
+
+    @Test
+    public void shouldMatchOneByOneWithBackReferences() {
+        Map<String, Pattern> mappings = new LinkedHashMap<>();
+        mappings.put("first", Pattern.compile("(a)x"));
+        mappings.put("twice", Pattern.compile("(\\w+)\\.\\1"));
+        mappings.put("any", Pattern.compile("a.*"));
+        mappings.put("other", Pattern.compile("b.*"));
+        MeasurementMatcher matcher = new MeasurementMatcher(mappings);
+
+        // the mappings around the one with a back reference are still combined
+        assertThat(matcher.getPatternCount()).isEqualTo(3);
+        assertThat(matcher.match("ax")).isEqualTo("first");
+        assertThat(matcher.match("abc.abc")).isEqualTo("twice");
+        assertThat(matcher.match("abc.abd")).isEqualTo("any");
+        assertThat(matcher.match("bcd")).isEqualTo("other");
+        assertThat(matcher.match("cde")).isNull();
+    }
+
+    @Test
+    public void shouldMatchPatternsWithFlagsOnTheirOwnInOrder() {
+        Map<String, Pattern> mappings = new LinkedHashMap<>();
+        mappings.put("exact", Pattern.compile("abc"));
+        mappings.put("insensitive", Pattern.compile("abc.*", Pattern.CASE_INSENSITIVE));
+        mappings.put("rest", Pattern.compile("a.*"));
+        MeasurementMatcher matcher = new MeasurementMatcher(mappings);
+
+        assertThat(matcher.getPatternCount()).isEqualTo(3);
+        assertThat(matcher.match("abc")).isEqualTo("exact");
+        assertThat(matcher.match("ABCD")).isEqualTo("insensitive");
+        assertThat(matcher.match("abd")).isEqualTo("rest");
+    }
+
+    @Test
+    public void shouldMatchOneByOneWithClashingNamedGroups() {
+        Map<String, Pattern> mappings = new LinkedHashMap<>();
+        mappings.put("first", Pattern.compile("(?<name>a)x"));
+        mappings.put("second", Pattern.compile("(?<name>b)x"));
+        MeasurementMatcher matcher = new MeasurementMatcher(mappings);
+
+        assertThat(matcher.getPatternCount()).isEqualTo(2);
+        assertThat(matcher.match("ax")).isEqualTo("first");
+        assertThat(matcher.match("bx")).isEqualTo("second");
+    }
+
+    @Test
+    public void shouldNotMistakeEscapedBackslashForBackReference() {
+        MeasurementMatcher matcher = new MeasurementMatcher(
+            Collections.singletonMap("escaped", Pattern.compile("a\\\\1")));
+
+        assertThat(matcher.getPatternCount()).isEqualTo(1);
+        assertThat(matcher.match("a\\1")).isEqualTo("escaped");
+    }
+
+    @Test
+    public void shouldMatchNothingWithoutMappings() {
+        MeasurementMatcher matcher = new MeasurementMatcher(Collections.<String, Pattern>emptyMap());
+
+        assertThat(matcher.match("anything")).isNull();
+    }
+}
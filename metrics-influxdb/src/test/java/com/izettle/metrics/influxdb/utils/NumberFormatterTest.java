@@ -0,0 +1,85 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+public class NumberFormatterTest {
+
+    @Test
+    public void shouldFormatDoublesInPlainNotation() {
+        assertThat(format(0.0)).isEqualTo("0.0");
+        assertThat(format(-0.0)).isEqualTo("-0.0");
+        assertThat(format(1.0)).isEqualTo("1.0");
+        assertThat(format(-12.5)).isEqualTo("-12.5");
+        assertThat(format(0.432)).isEqualTo("0.432");
+        assertThat(format(1e-5)).isEqualTo("0.00001");
+        assertThat(format(1e20)).isEqualTo("100000000000000000000.0");
+        assertThat(format(123456.789)).isEqualTo("123456.789");
+        assertThat(format(1.1f)).isEqualTo("1.100000023841858");
+    }
+
+    @Test
+    public void shouldUseShortestRepresentation() {
+        assertThat(format(0.1 + 0.2)).isEqualTo("0.30000000000000004");
+        assertThat(format(1.0 / 3)).isEqualTo("0.3333333333333333");
+        assertThat(format(1e23)).isEqualTo("100000000000000000000000.0");
+        assertThat(format(Double.MIN_VALUE)).isEqualTo("0." + zeros(323) + "49");
+        assertThat(format(Double.MAX_VALUE)).isEqualTo("17976931348623157" + zeros(292) + ".0");
+    }
+
+    @Test
+    public void shouldFormatLongs() {
+        LineProtocolBuffer buffer = new LineProtocolBuffer();
+        NumberFormatter.appendLong(buffer, -1234L);
+        assertThat(buffer.toString()).isEqualTo("-1234.0");
+    }
+
+    @Test
+    public void shouldMatchNumberFormatForTypicalValues() {
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+        numberFormat.setMaximumFractionDigits(340);
+        numberFormat.setGroupingUsed(false);
+        numberFormat.setMinimumFractionDigits(1);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            double value = random.nextInt(100000000) / 1000.0;
+            assertThat(format(value)).isEqualTo(numberFormat.format(value));
+        }
+    }
+
+    @Test
+    public void shouldRoundTripRandomDoubles() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            assertThat(Double.parseDouble(format(value))).isEqualTo(value);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNaN() {
+        format(Double.NaN);
+    }
+
+    private static String format(double value) {
+        LineProtocolBuffer buffer = new LineProtocolBuffer();
+        NumberFormatter.appendDouble(buffer, value);
+        return buffer.toString();
+    }
+
+    private static String zeros(int count) {
+        StringBuilder zeros = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            zeros.append('0');
+        }
+        return zeros.toString();
+    }
+}
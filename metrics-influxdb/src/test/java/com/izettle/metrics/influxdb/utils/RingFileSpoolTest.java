@@ -0,0 +1,140 @@
+package com.izettle.metrics.influxdb.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RingFileSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadRecordsInOrderTheyWereAppended() throws Exception {
+        try (RingFileSpool spool = new RingFileSpool(folder.newFile(), 1024)) {
+            append(spool, "a value=1\n");
+            append(spool, "b value=2\n");
+
+            assertThat(drain(spool)).containsExactly("a value=1\n", "b value=2\n");
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldKeepRecordUntilRemoved() throws Exception {
+        try (RingFileSpool spool = new RingFileSpool(folder.newFile(), 1024)) {
+            append(spool, "a value=1\n");
+            LineProtocolBuffer buffer = new LineProtocolBuffer();
+
+            long position = spool.peek(buffer);
+            assertThat(spool.peek(buffer)).isEqualTo(position);
+            assertThat(buffer.toString()).isEqualTo("a value=1\n");
+
+            spool.remove(position);
+            assertThat(spool.peek(buffer)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void shouldWrapAroundEndOfFile() throws Exception {
+        try (RingFileSpool spool = new RingFileSpool(folder.newFile(), 50)) {
+            List<String> read = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                append(spool, "line " + i + "\n");
+                read.addAll(drain(spool));
+            }
+            assertThat(read).hasSize(20);
+            assertThat(read.get(19)).isEqualTo("line 19\n");
+            assertThat(spool.getEvictedRecords()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void shouldEvictOldestRecordsWhenFull() throws Exception {
+        try (RingFileSpool spool = new RingFileSpool(folder.newFile(), 40)) {
+            // 8 bytes of header and 10 bytes each
+            append(spool, "aaaaaaaaa\n");
+            append(spool, "bbbbbbbbb\n");
+            append(spool, "ccccccccc\n");
+
+            assertThat(spool.getEvictedRecords()).isEqualTo(1);
+            assertThat(drain(spool)).containsExactly("bbbbbbbbb\n", "ccccccccc\n");
+        }
+    }
+
+    @Test
+    public void shouldRejectRecordLargerThanSpool() throws Exception {
+        try (RingFileSpool spool = new RingFileSpool(folder.newFile(), 16)) {
+            append(spool, "a value=1\n");
+
+            assertThat(spool.getRejectedRecords()).isEqualTo(1);
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldKeepRecordsWhenReopened() throws Exception {
+        File file = folder.newFile();
+        try (RingFileSpool spool = new RingFileSpool(file, 1024)) {
+            append(spool, "a value=1\n");
+            append(spool, "b value=2\n");
+            LineProtocolBuffer buffer = new LineProtocolBuffer();
+            spool.remove(spool.peek(buffer));
+        }
+        try (RingFileSpool spool = new RingFileSpool(file, 1024)) {
+            assertThat(drain(spool)).containsExactly("b value=2\n");
+        }
+    }
+
+    @Test
+    public void shouldStartEmptyWhenCapacityChanged() throws Exception {
+        File file = folder.newFile();
+        try (RingFileSpool spool = new RingFileSpool(file, 1024)) {
+            append(spool, "a value=1\n");
+        }
+        try (RingFileSpool spool = new RingFileSpool(file, 2048)) {
+            assertThat(spool.isEmpty()).isTrue();
+        }
+        assertThat(file.length()).isEqualTo(RingFileSpool.HEADER_BYTES + 2048);
+    }
+
+    @Test
+    public void shouldDiscardCorruptRecords() throws Exception {
+        File file = folder.newFile();
+        try (RingFileSpool spool = new RingFileSpool(file, 1024)) {
+            append(spool, "a value=1\n");
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            // the first byte of the record, after the header and the length and checksum of the record
+            raw.seek(RingFileSpool.HEADER_BYTES + 8);
+            raw.write('x');
+        }
+        try (RingFileSpool spool = new RingFileSpool(file, 1024)) {
+            assertThat(spool.peek(new LineProtocolBuffer())).isEqualTo(-1);
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    private static void append(RingFileSpool spool, String lines) {
+        byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+        spool.append(bytes, 0, bytes.length);
+    }
+
+    private static List<String> drain(RingFileSpool spool) {
+        List<String> records = new ArrayList<>();
+        LineProtocolBuffer buffer = new LineProtocolBuffer();
+        long position;
+        while ((position = spool.peek(buffer)) >= 0) {
+            records.add(buffer.toString());
+            spool.remove(position);
+        }
+        return records;
+    }
+}